@@ -0,0 +1,485 @@
+package com.koushikdutta.ion.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a streaming Gson TypeAdapter for every class annotated with
+ * com.koushikdutta.ion.gson.JsonModel, and a single TypeAdapterFactory for all of them,
+ * which Ion registers with its Gson.
+ * The adapters bind fields the same way Gson's reflective adapter does, but read and write
+ * them directly, so no reflection happens while parsing.
+ */
+public class JsonModelProcessor extends AbstractProcessor {
+    private static final String JSON_MODEL = "com.koushikdutta.ion.gson.JsonModel";
+    private static final String SERIALIZED_NAME = "com.google.gson.annotations.SerializedName";
+    // must match the name looked up by JsonModels
+    private static final String FACTORY_PACKAGE = "com.koushikdutta.ion.gson";
+    private static final String FACTORY_NAME = "GeneratedTypeAdapters";
+
+    // models and their adapters, by qualified name, written to the factory once all are generated
+    private final ArrayList<String[]> adapters = new ArrayList<String[]>();
+    private boolean factoryWritten;
+
+    private static class Field {
+        String name;
+        String jsonName;
+        TypeMirror type;
+        int adapter = -1;
+        // written with the adapter of its runtime class, when that is a subclass of its type
+        boolean runtimeType;
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(JSON_MODEL);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(JSON_MODEL);
+        boolean found = false;
+        if (annotation != null) {
+            for (Element element: roundEnv.getElementsAnnotatedWith(annotation)) {
+                found = true;
+                try {
+                    generateAdapter((TypeElement)element);
+                }
+                catch (IOException e) {
+                    error(element, "Unable to write TypeAdapter: " + e);
+                }
+            }
+        }
+
+        // the adapters are written first, so the factory is written in a later round,
+        // once no more models are found
+        if (!found && !factoryWritten && !adapters.isEmpty() && !roundEnv.processingOver()) {
+            factoryWritten = true;
+            try {
+                generateFactory();
+            }
+            catch (IOException e) {
+                error(null, "Unable to write " + FACTORY_NAME + ": " + e);
+            }
+        }
+        return true;
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private static boolean isPrivate(Element element) {
+        return element.getModifiers().contains(Modifier.PRIVATE);
+    }
+
+    private boolean isAccessible(Element element, PackageElement from) {
+        if (isPrivate(element))
+            return false;
+        if (element.getModifiers().contains(Modifier.PUBLIC))
+            return true;
+        return processingEnv.getElementUtils().getPackageOf(element).equals(from);
+    }
+
+    private boolean validate(TypeElement model) {
+        if (model.getKind() != ElementKind.CLASS || model.getModifiers().contains(Modifier.ABSTRACT)) {
+            error(model, "@JsonModel must annotate a concrete class");
+            return false;
+        }
+        if (!model.getTypeParameters().isEmpty()) {
+            error(model, "@JsonModel classes must not have type parameters");
+            return false;
+        }
+        for (Element e = model; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            TypeElement type = (TypeElement)e;
+            if (type.getNestingKind() == NestingKind.LOCAL || type.getNestingKind() == NestingKind.ANONYMOUS
+                || (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC))
+                || isPrivate(type)) {
+                error(model, "@JsonModel classes must be top level or static nested classes, and not private");
+                return false;
+            }
+        }
+        List<ExecutableElement> constructors = ElementFilter.constructorsIn(model.getEnclosedElements());
+        boolean hasConstructor = false;
+        for (ExecutableElement constructor: constructors) {
+            if (constructor.getParameters().isEmpty() && !isPrivate(constructor))
+                hasConstructor = true;
+        }
+        if (!hasConstructor) {
+            error(model, "@JsonModel classes must have a no argument constructor that is not private");
+            return false;
+        }
+        return true;
+    }
+
+    private static String getSerializedName(VariableElement field) {
+        for (AnnotationMirror mirror: field.getAnnotationMirrors()) {
+            if (!((TypeElement)mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(SERIALIZED_NAME))
+                continue;
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry: mirror.getElementValues().entrySet()) {
+                if (entry.getKey().getSimpleName().contentEquals("value"))
+                    return (String)entry.getValue().getValue();
+            }
+        }
+        return null;
+    }
+
+    // the fields Gson would bind, from the class up through its superclasses
+    private List<Field> getFields(TypeElement model) {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(model);
+        ArrayList<Field> ret = new ArrayList<Field>();
+        HashSet<String> names = new HashSet<String>();
+        boolean valid = true;
+        TypeElement type = model;
+        while (type != null && !type.getQualifiedName().contentEquals("java.lang.Object")) {
+            for (VariableElement element: ElementFilter.fieldsIn(type.getEnclosedElements())) {
+                Set<Modifier> modifiers = element.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT))
+                    continue;
+                if (!isAccessible(element, pkg) || modifiers.contains(Modifier.FINAL)) {
+                    error(element, "Fields of @JsonModel classes must be accessible from " + model.getQualifiedName() + " and not final");
+                    valid = false;
+                    continue;
+                }
+                Field field = new Field();
+                field.name = element.getSimpleName().toString();
+                field.jsonName = getSerializedName(element);
+                if (field.jsonName == null)
+                    field.jsonName = field.name;
+                // resolves type variables bound by a generic superclass
+                field.type = processingEnv.getTypeUtils().asMemberOf((DeclaredType)model.asType(), element);
+                if (!names.add(field.jsonName)) {
+                    error(element, model.getQualifiedName() + " declares multiple JSON fields named " + field.jsonName);
+                    valid = false;
+                    continue;
+                }
+                ret.add(field);
+            }
+            TypeMirror superclass = type.getSuperclass();
+            if (superclass.getKind() != TypeKind.DECLARED)
+                break;
+            type = (TypeElement)((DeclaredType)superclass).asElement();
+        }
+        return valid ? ret : null;
+    }
+
+    private static String getAdapterName(TypeElement model, PackageElement pkg) {
+        String name = model.getQualifiedName().toString();
+        if (!pkg.isUnnamed())
+            name = name.substring(pkg.getQualifiedName().length() + 1);
+        return name.replace('.', '_') + "_TypeAdapter";
+    }
+
+    private static String getBoxedName(TypeKind kind) {
+        switch (kind) {
+            case BOOLEAN: return "java.lang.Boolean";
+            case BYTE: return "java.lang.Byte";
+            case SHORT: return "java.lang.Short";
+            case INT: return "java.lang.Integer";
+            case LONG: return "java.lang.Long";
+            case CHAR: return "java.lang.Character";
+            case FLOAT: return "java.lang.Float";
+            case DOUBLE: return "java.lang.Double";
+        }
+        return null;
+    }
+
+    private static boolean isString(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED
+            && ((TypeElement)((DeclaredType)type).asElement()).getQualifiedName().contentEquals("java.lang.String");
+    }
+
+    // int, long and boolean are read and written directly, the same way Gson's own adapters do.
+    // float and double go through Gson, which applies its floating point settings.
+    private static boolean isDirect(TypeMirror type) {
+        TypeKind kind = type.getKind();
+        return kind == TypeKind.INT || kind == TypeKind.LONG || kind == TypeKind.BOOLEAN || isString(type);
+    }
+
+    // Gson's reflective adapter writes a field with the adapter of the class of its value, when the
+    // declared type is a class that may be subclassed, so the fields of the subclass are written too.
+    private static boolean isRuntimeTyped(TypeMirror type) {
+        if (type.getKind() != TypeKind.DECLARED || !((DeclaredType)type).getTypeArguments().isEmpty())
+            return false;
+        Element element = ((DeclaredType)type).asElement();
+        return (element.getKind() == ElementKind.CLASS || element.getKind() == ElementKind.INTERFACE)
+            && !element.getModifiers().contains(Modifier.FINAL);
+    }
+
+    private void generateAdapter(TypeElement model) throws IOException {
+        if (!validate(model))
+            return;
+        List<Field> fields = getFields(model);
+        if (fields == null)
+            return;
+
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(model);
+        String modelName = model.getQualifiedName().toString();
+        String adapterName = getAdapterName(model, pkg);
+        String qualifiedAdapterName = pkg.isUnnamed() ? adapterName : pkg.getQualifiedName() + "." + adapterName;
+
+        // the adapters of the remaining types are looked up from the Gson on first use
+        ArrayList<String> adapterTypes = new ArrayList<String>();
+        boolean runtimeTypes = false;
+        for (Field field: fields) {
+            if (isDirect(field.type))
+                continue;
+            field.runtimeType = isRuntimeTyped(field.type);
+            runtimeTypes |= field.runtimeType;
+            // primitives share the adapters of their boxed types
+            field.adapter = adapterTypes.size();
+            TypeKind kind = field.type.getKind();
+            adapterTypes.add(kind.isPrimitive() ? getBoxedName(kind) : field.type.toString());
+        }
+
+        PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(qualifiedAdapterName, model).openWriter());
+        try {
+            out.println("// Generated by JsonModelProcessor. Do not edit.");
+            if (!pkg.isUnnamed())
+                out.println("package " + pkg.getQualifiedName() + ";");
+            out.println();
+            out.println("import com.google.gson.Gson;");
+            out.println("import com.google.gson.JsonSyntaxException;");
+            out.println("import com.google.gson.TypeAdapter;");
+            if (runtimeTypes)
+                out.println("import com.google.gson.internal.bind.ReflectiveTypeAdapterFactory;");
+            out.println("import com.google.gson.reflect.TypeToken;");
+            out.println("import com.google.gson.stream.JsonReader;");
+            out.println("import com.google.gson.stream.JsonToken;");
+            out.println("import com.google.gson.stream.JsonWriter;");
+            out.println();
+            out.println("import java.io.IOException;");
+            out.println();
+            out.println("public final class " + adapterName + " extends TypeAdapter<" + modelName + "> {");
+            out.println("    private final Gson gson;");
+            for (int i = 0; i < adapterTypes.size(); i++) {
+                out.println("    private TypeAdapter<" + adapterTypes.get(i) + "> adapter" + i + ";");
+            }
+            out.println();
+            out.println("    public " + adapterName + "(Gson gson) {");
+            out.println("        this.gson = gson;");
+            out.println("    }");
+
+            for (int i = 0; i < adapterTypes.size(); i++) {
+                String type = adapterTypes.get(i);
+                String token = type.indexOf('<') >= 0 ? "new TypeToken<" + type + ">() {}" : "TypeToken.get(" + type + ".class)";
+                out.println();
+                out.println("    private TypeAdapter<" + type + "> adapter" + i + "() {");
+                out.println("        if (adapter" + i + " == null)");
+                out.println("            adapter" + i + " = gson.getAdapter(" + token + ");");
+                out.println("        return adapter" + i + ";");
+                out.println("    }");
+            }
+
+            if (runtimeTypes) {
+                // the same choice of adapter as Gson's TypeAdapterRuntimeTypeWrapper
+                out.println();
+                out.println("    @SuppressWarnings(\"unchecked\")");
+                out.println("    private void writeRuntimeType(JsonWriter out, TypeAdapter<?> declared, Object value) throws IOException {");
+                out.println("        TypeAdapter<Object> runtime = (TypeAdapter<Object>)gson.getAdapter(value.getClass());");
+                out.println("        if (runtime instanceof ReflectiveTypeAdapterFactory.Adapter && !(declared instanceof ReflectiveTypeAdapterFactory.Adapter))");
+                out.println("            runtime = (TypeAdapter<Object>)declared;");
+                out.println("        runtime.write(out, value);");
+                out.println("    }");
+            }
+
+            out.println();
+            out.println("    @Override");
+            out.println("    public void write(JsonWriter out, " + modelName + " value) throws IOException {");
+            out.println("        if (value == null) {");
+            out.println("            out.nullValue();");
+            out.println("            return;");
+            out.println("        }");
+            out.println("        out.beginObject();");
+            for (Field field: fields) {
+                out.println("        out.name(\"" + escape(field.jsonName) + "\");");
+                String target = "value." + field.name;
+                if (field.runtimeType) {
+                    out.println("        if (" + target + " != null && " + target + ".getClass() != " + field.type + ".class)");
+                    out.println("            writeRuntimeType(out, adapter" + field.adapter + "(), " + target + ");");
+                    out.println("        else");
+                    out.println("            adapter" + field.adapter + "().write(out, " + target + ");");
+                }
+                else if (field.adapter >= 0)
+                    out.println("        adapter" + field.adapter + "().write(out, value." + field.name + ");");
+                else
+                    out.println("        out.value(value." + field.name + ");");
+            }
+            out.println("        out.endObject();");
+            out.println("    }");
+
+            out.println();
+            out.println("    @Override");
+            out.println("    public " + modelName + " read(JsonReader in) throws IOException {");
+            out.println("        if (in.peek() == JsonToken.NULL) {");
+            out.println("            in.nextNull();");
+            out.println("            return null;");
+            out.println("        }");
+            out.println("        " + modelName + " value = new " + modelName + "();");
+            out.println("        try {");
+            out.println("            in.beginObject();");
+            out.println("            while (in.hasNext()) {");
+            out.println("                String name = in.nextName();");
+            String prefix = "if";
+            for (Field field: fields) {
+                out.println("                " + prefix + " (name.equals(\"" + escape(field.jsonName) + "\")) {");
+                writeRead(out, field);
+                out.println("                }");
+                prefix = "else if";
+            }
+            if (fields.isEmpty()) {
+                out.println("                in.skipValue();");
+            }
+            else {
+                out.println("                else {");
+                out.println("                    in.skipValue();");
+                out.println("                }");
+            }
+            out.println("            }");
+            out.println("        }");
+            out.println("        catch (IllegalStateException e) {");
+            out.println("            throw new JsonSyntaxException(e);");
+            out.println("        }");
+            out.println("        in.endObject();");
+            out.println("        return value;");
+            out.println("    }");
+            out.println("}");
+        }
+        finally {
+            out.close();
+        }
+
+        adapters.add(new String[] { modelName, qualifiedAdapterName });
+    }
+
+    private static void writeRead(PrintWriter out, Field field) {
+        String target = "value." + field.name;
+        String indent = "                    ";
+        TypeKind kind = field.type.getKind();
+        if (field.adapter >= 0) {
+            if (kind.isPrimitive()) {
+                // a null leaves the primitive at its default, as Gson does
+                out.println(indent + getBoxedName(kind) + " read = adapter" + field.adapter + "().read(in);");
+                out.println(indent + "if (read != null)");
+                out.println(indent + "    " + target + " = read;");
+            }
+            else {
+                out.println(indent + target + " = adapter" + field.adapter + "().read(in);");
+            }
+            return;
+        }
+
+        if (isString(field.type)) {
+            out.println(indent + "JsonToken token = in.peek();");
+            out.println(indent + "if (token == JsonToken.NULL) {");
+            out.println(indent + "    in.nextNull();");
+            out.println(indent + "    " + target + " = null;");
+            out.println(indent + "}");
+            out.println(indent + "else if (token == JsonToken.BOOLEAN) {");
+            out.println(indent + "    " + target + " = Boolean.toString(in.nextBoolean());");
+            out.println(indent + "}");
+            out.println(indent + "else {");
+            out.println(indent + "    " + target + " = in.nextString();");
+            out.println(indent + "}");
+            return;
+        }
+
+        out.println(indent + "JsonToken token = in.peek();");
+        out.println(indent + "if (token == JsonToken.NULL) {");
+        out.println(indent + "    in.nextNull();");
+        out.println(indent + "}");
+        if (kind == TypeKind.BOOLEAN) {
+            out.println(indent + "else if (token == JsonToken.STRING) {");
+            out.println(indent + "    " + target + " = Boolean.parseBoolean(in.nextString());");
+            out.println(indent + "}");
+            out.println(indent + "else {");
+            out.println(indent + "    " + target + " = in.nextBoolean();");
+            out.println(indent + "}");
+        }
+        else {
+            String read = kind == TypeKind.INT ? "in.nextInt()" : "in.nextLong()";
+            out.println(indent + "else {");
+            out.println(indent + "    try {");
+            out.println(indent + "        " + target + " = " + read + ";");
+            out.println(indent + "    }");
+            out.println(indent + "    catch (NumberFormatException e) {");
+            out.println(indent + "        throw new JsonSyntaxException(e);");
+            out.println(indent + "    }");
+            out.println(indent + "}");
+        }
+    }
+
+    private static String escape(String value) {
+        StringBuilder ret = new StringBuilder();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                ret.append('\\').append(c);
+            else if (c < 0x20 || c > 0x7e)
+                ret.append(String.format("\\u%04x", (int)c));
+            else
+                ret.append(c);
+        }
+        return ret.toString();
+    }
+
+    private void generateFactory() throws IOException {
+        String name = FACTORY_PACKAGE + "." + FACTORY_NAME;
+        PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(name).openWriter());
+        try {
+            out.println("// Generated by JsonModelProcessor. Do not edit.");
+            out.println("package " + FACTORY_PACKAGE + ";");
+            out.println();
+            out.println("import com.google.gson.Gson;");
+            out.println("import com.google.gson.TypeAdapter;");
+            out.println("import com.google.gson.TypeAdapterFactory;");
+            out.println("import com.google.gson.reflect.TypeToken;");
+            out.println();
+            out.println("public final class " + FACTORY_NAME + " implements TypeAdapterFactory {");
+            out.println("    @SuppressWarnings(\"unchecked\")");
+            out.println("    @Override");
+            out.println("    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {");
+            out.println("        Class<? super T> raw = type.getRawType();");
+            for (String[] adapter: adapters) {
+                out.println("        if (raw == " + adapter[0] + ".class)");
+                out.println("            return (TypeAdapter<T>)new " + adapter[1] + "(gson);");
+            }
+            out.println("        return null;");
+            out.println("    }");
+            out.println("}");
+        }
+        finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.koushikdutta.ion;
+
+import android.annotation.TargetApi;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.View;
+
+import java.util.ArrayList;
+
+/**
+ * A single clock that drives all the animated IonDrawables, such as animated GIFs and fade ins.
+ * Rather than each drawable scheduling its own invalidations, the drawables that are due
+ * are invalidated in one batch, aligned to the display frame on Jelly Bean and later.
+ * Drawables that are detached from their view, or are off screen, stop animating until
+ * they are drawn again.
+ * This is only accessed from the UI thread.
+ */
+public class AnimationClock {
+    // ticks that run more than this late count as late frames
+    private static final long LATE_THRESHOLD = 32;
+
+    private static AnimationClock instance;
+
+    public static AnimationClock getInstance() {
+        assert Thread.currentThread() == Looper.getMainLooper().getThread();
+        if (instance == null)
+            instance = new AnimationClock();
+        return instance;
+    }
+
+    ArrayList<IonDrawable> drawables = new ArrayList<IonDrawable>();
+    boolean scheduled;
+    long scheduledTime;
+    Rect visibleRect = new Rect();
+
+    long frames;
+    long lateFrames;
+    long invalidations;
+    long skipped;
+    long tickNanos;
+
+    private AnimationClock() {
+    }
+
+    Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            tick();
+        }
+    };
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class FrameTicker {
+        static Choreographer.FrameCallback callback;
+
+        static void post(long delay) {
+            if (callback == null) {
+                callback = new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        getInstance().tick();
+                    }
+                };
+            }
+            Choreographer.getInstance().postFrameCallbackDelayed(callback, delay);
+        }
+
+        static void remove() {
+            if (callback != null)
+                Choreographer.getInstance().removeFrameCallback(callback);
+        }
+    }
+
+    /**
+     * Animate the given drawable until it reports that it is done.
+     */
+    void register(IonDrawable drawable) {
+        if (!drawable.animating) {
+            drawable.animating = true;
+            drawables.add(drawable);
+        }
+        schedule(SystemClock.uptimeMillis());
+    }
+
+    private void schedule(long when) {
+        if (scheduled && scheduledTime <= when)
+            return;
+        unschedule();
+        scheduled = true;
+        scheduledTime = when;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+            FrameTicker.post(Math.max(0, when - SystemClock.uptimeMillis()));
+        else
+            Ion.mainHandler.postAtTime(tick, when);
+    }
+
+    private void unschedule() {
+        if (!scheduled)
+            return;
+        scheduled = false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+            FrameTicker.remove();
+        else
+            Ion.mainHandler.removeCallbacks(tick);
+    }
+
+    private boolean isOnScreen(IonDrawable drawable) {
+        Drawable.Callback callback = drawable.getCallback();
+        if (callback == null)
+            return false;
+        // the drawable may be wrapped in another drawable, assume that is visible
+        if (!(callback instanceof View))
+            return true;
+        View view = (View)callback;
+        if (view.getWindowToken() == null || !view.isShown())
+            return false;
+        return view.getGlobalVisibleRect(visibleRect);
+    }
+
+    void tick() {
+        long start = System.nanoTime();
+        long now = SystemClock.uptimeMillis();
+        if (now - scheduledTime > LATE_THRESHOLD)
+            lateFrames++;
+        scheduled = false;
+        frames++;
+
+        long next = Long.MAX_VALUE;
+        for (int i = drawables.size() - 1; i >= 0; i--) {
+            IonDrawable drawable = drawables.get(i);
+            long wake = -1;
+            if (isOnScreen(drawable)) {
+                if (drawable.advanceAnimation(now)) {
+                    drawable.invalidateSelf();
+                    invalidations++;
+                }
+                wake = drawable.getNextAnimationTime(now);
+            }
+            else {
+                skipped++;
+            }
+            if (wake < 0) {
+                // the drawable will register again when it is next drawn
+                drawable.animating = false;
+                drawables.remove(i);
+                continue;
+            }
+            next = Math.min(next, wake);
+        }
+
+        if (!drawables.isEmpty())
+            schedule(Math.max(next, now));
+        tickNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * @return The number of drawables that are currently animating.
+     */
+    public int getAnimatingCount() {
+        return drawables.size();
+    }
+
+    /**
+     * @return The number of clock ticks.
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return The number of ticks that ran more than 32ms after they were due.
+     */
+    public long getLateFrames() {
+        return lateFrames;
+    }
+
+    /**
+     * @return The number of drawables that were invalidated to animate, across all ticks.
+     */
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * @return The number of drawables that stopped animating because they were off screen
+     * or detached.
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * @return The average time spent in a tick, in nanoseconds.
+     */
+    public long getAverageTickNanos() {
+        if (frames == 0)
+            return 0;
+        return tickNanos / frames;
+    }
+
+    public void resetStats() {
+        frames = 0;
+        lateFrames = 0;
+        invalidations = 0;
+        skipped = 0;
+        tickNanos = 0;
+    }
+
+    public void dump() {
+        Log.i("AnimationClock", "animating: " + getAnimatingCount());
+        Log.i("AnimationClock", "frames: " + frames + " late: " + lateFrames);
+        Log.i("AnimationClock", "invalidations: " + invalidations + " skipped: " + skipped);
+        Log.i("AnimationClock", "average tick: " + getAverageTickNanos() + "ns");
+    }
+}
@@ -5,6 +5,7 @@ import com.koushikdutta.async.ByteBufferList;
 import com.koushikdutta.async.future.Future;
 import com.koushikdutta.async.future.FutureCallback;
 import com.koushikdutta.async.http.AsyncHttpRequest;
+import com.koushikdutta.async.parser.AsyncParser;
 import com.koushikdutta.async.parser.ByteBufferListParser;
 import com.koushikdutta.async.util.FileCache;
 import com.koushikdutta.ion.bitmap.BitmapInfo;
@@ -27,7 +28,9 @@ class BitmapFetcher implements IonRequestBuilder.LoadRequestCallback {
     int resizeHeight;
     boolean animateGif;
     boolean deepZoom;
+    int previewThreshold;
     ArrayList<PostProcess> postProcess;
+    int priority;
 
     private boolean fastLoad(String uri) {
         Ion ion = builder.ion;
@@ -65,25 +68,33 @@ class BitmapFetcher implements IonRequestBuilder.LoadRequestCallback {
         return false;
     }
 
-    public static final int MAX_IMAGEVIEW_LOAD = 5;
-
-    public static boolean shouldDeferImageView(Ion ion) {
-        if (ion.bitmapsPending.keySet().size() <= MAX_IMAGEVIEW_LOAD)
-            return false;
-        int loadCount = 0;
-        for (String key: ion.bitmapsPending.keySet()) {
-            Object owner = ion.bitmapsPending.tag(key);
-            if (owner instanceof LoadBitmapBase) {
-                loadCount++;
-                if (loadCount > MAX_IMAGEVIEW_LOAD)
-                    return true;
+    /**
+     * Decode for the measured size of a view, rather than for the screen.
+     * The decode is cached separately from the full size decode, and the cache is checked again.
+     * @param width The width to decode for, or -1 if the width is unconstrained
+     * @param height The height to decode for, or -1 if the height is unconstrained
+     */
+    public void measured(int width, int height) {
+        resizeWidth = width;
+        resizeHeight = height;
+        downloadKey = FileCache.toKeyString(downloadKey, ":measured", width, "x", height);
+        bitmapKey = downloadKey;
+        if (hasTransforms) {
+            for (Transform transform : transforms) {
+                bitmapKey += transform.key();
             }
+            bitmapKey = FileCache.toKeyString(bitmapKey);
         }
-        return false;
+
+        info = null;
+        if (!builder.noCache)
+            info = builder.ion.bitmapCache.get(bitmapKey);
     }
 
     public DeferredLoadBitmap defer() {
         DeferredLoadBitmap ret = new DeferredLoadBitmap(builder.ion, downloadKey, this);
+        ret.priority = priority;
+        builder.ion.loadAdmission.defer(ret);
         executeTransforms(builder.ion);
         return ret;
     }
@@ -97,7 +108,7 @@ class BitmapFetcher implements IonRequestBuilder.LoadRequestCallback {
         // make sure that the parent download isn't cancelled (empty list)
         // and also make sure there are waiters for this transformed bitmap
         if (ion.bitmapsPending.tag(bitmapKey) == null) {
-            ion.bitmapsPending.add(downloadKey, new TransformBitmap(ion, bitmapKey, downloadKey, transforms, postProcess));
+            ion.bitmapsPending.add(downloadKey, new TransformBitmap(ion, bitmapKey, downloadKey, transforms, postProcess, priority));
         }
     }
 
@@ -114,7 +125,7 @@ class BitmapFetcher implements IonRequestBuilder.LoadRequestCallback {
         // See TransformBitmap for where the cache is populated.
         FileCache fileCache = ion.responseCache.getFileCache();
         if (!builder.noCache && hasTransforms && fileCache.exists(bitmapKey) && !deepZoom) {
-            TransformBitmap.getBitmapSnapshot(ion, bitmapKey, postProcess);
+            TransformBitmap.getBitmapSnapshot(ion, bitmapKey, postProcess, priority);
             return;
         }
 
@@ -124,12 +135,23 @@ class BitmapFetcher implements IonRequestBuilder.LoadRequestCallback {
             builder.loadRequestCallback = this;
 
             if (!deepZoom) {
-                IonRequestBuilder.EmitterTransform<ByteBufferList> emitterTransform = builder.execute(new ByteBufferListParser(), new Runnable() {
+                // previews are only shown for untransformed loads, since the drawable
+                // is waiting on the download key directly.
+                AsyncParser<ByteBufferList> parser;
+                if (previewThreshold > 0 && !hasTransforms)
+                    parser = new ProgressiveBitmapParser(ion, downloadKey, previewThreshold, resizeWidth, resizeHeight);
+                else
+                    parser = new ByteBufferListParser();
+                IonRequestBuilder.EmitterTransform<ByteBufferList> emitterTransform = builder.execute(parser, new Runnable() {
                     @Override
                     public void run() {
                         AsyncServer.post(Ion.mainHandler, new Runnable() {
                             @Override
                             public void run() {
+                                // a cancelled download is never reported
+                                Object owner = ion.bitmapsPending.tag(downloadKey);
+                                if (owner instanceof LoadBitmapBase)
+                                    ((LoadBitmapBase)owner).finish();
                                 ion.bitmapsPending.remove(downloadKey);
                             }
                         });
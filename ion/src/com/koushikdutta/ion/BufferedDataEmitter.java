@@ -0,0 +1,44 @@
+package com.koushikdutta.ion;
+
+import com.koushikdutta.async.AsyncServer;
+import com.koushikdutta.async.ByteBufferList;
+import com.koushikdutta.async.DataEmitter;
+import com.koushikdutta.async.FilteredDataEmitter;
+import com.koushikdutta.async.callback.CompletedCallback;
+
+/**
+ * Replays a body that was already read in full to a parser, on the calling thread.
+ * This lets a parser run off of the AsyncServer thread that read the body.
+ * The charset and server are those of the emitter the body was read from.
+ */
+class BufferedDataEmitter extends FilteredDataEmitter {
+    String charset;
+    AsyncServer server;
+
+    BufferedDataEmitter(DataEmitter source) {
+        charset = source.charset();
+        server = source.getServer();
+    }
+
+    @Override
+    public boolean isPaused() {
+        return false;
+    }
+
+    @Override
+    public String charset() {
+        return charset;
+    }
+
+    @Override
+    public AsyncServer getServer() {
+        return server;
+    }
+
+    void replay(ByteBufferList body) {
+        onDataAvailable(this, body);
+        CompletedCallback end = getEndCallback();
+        if (end != null)
+            end.onCompleted(null);
+    }
+}
@@ -0,0 +1,155 @@
+package com.koushikdutta.ion;
+
+import android.os.Handler;
+
+import com.koushikdutta.async.AsyncServer;
+import com.koushikdutta.async.future.Future;
+import com.koushikdutta.async.future.FutureCallback;
+import com.koushikdutta.async.future.SimpleFuture;
+import com.koushikdutta.ion.future.ResponseFuture;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+/**
+ * A single fetch and parse shared by identical requests that are in flight at the same time.
+ * Each request gets its own future, which completes on the handler of that request.
+ * The shared fetch is only cancelled once every request has been cancelled.
+ * Note that every request receives the same parsed result instance.
+ */
+class CoalescedLoad<T> implements FutureCallback<Response<T>> {
+    class CoalescedFuture extends SimpleFuture<T> implements ResponseFuture<T> {
+        IonRequestBuilder builder;
+        Response<T> response;
+
+        CoalescedFuture(IonRequestBuilder builder) {
+            this.builder = builder;
+        }
+
+        @Override
+        public Future<Response<T>> withResponse() {
+            final SimpleFuture<Response<T>> ret = new SimpleFuture<Response<T>>();
+            setCallback(new FutureCallback<T>() {
+                @Override
+                public void onCompleted(Exception e, T result) {
+                    if (response != null) {
+                        ret.setComplete(response);
+                        return;
+                    }
+                    ret.setComplete(e, null);
+                }
+            });
+            ret.setParent(this);
+            return ret;
+        }
+
+        @Override
+        protected void cancelCleanup() {
+            super.cancelCleanup();
+            release(this);
+        }
+
+        void deliver(final Exception e, final Response<T> response) {
+            Runnable runner = new Runnable() {
+                @Override
+                public void run() {
+                    // same as a request that was not coalesced
+                    String deadReason = builder.contextReference.isAlive();
+                    if (deadReason != null) {
+                        cancelSilently();
+                        return;
+                    }
+                    CoalescedFuture.this.response = response;
+                    if (response != null)
+                        setComplete(response.exception, response.result);
+                    else
+                        setComplete(e);
+                }
+            };
+            Handler handler = builder.handler;
+            if (handler == null)
+                ion.httpClient.getServer().post(runner);
+            else
+                AsyncServer.post(handler, runner);
+        }
+    }
+
+    Ion ion;
+    String key;
+    Future<T> load;
+    ArrayList<CoalescedFuture> waiters = new ArrayList<CoalescedFuture>();
+    boolean done;
+
+    CoalescedLoad(Ion ion, String key) {
+        this.ion = ion;
+        this.key = key;
+    }
+
+    /**
+     * Get a future for the given request, which will complete with the result of the shared load.
+     * @return The future, or null if the shared load has already completed.
+     */
+    ResponseFuture<T> join(IonRequestBuilder builder) {
+        CoalescedFuture ret = new CoalescedFuture(builder);
+        synchronized (this) {
+            if (done)
+                return null;
+            waiters.add(ret);
+        }
+        // so the request is cancelled along with its context and groups
+        ion.addFutureInFlight(ret, builder.contextReference.getContext());
+        if (builder.groups != null) {
+            for (WeakReference<Object> ref: builder.groups) {
+                Object group = ref.get();
+                if (group != null)
+                    ion.addFutureInFlight(ret, group);
+            }
+        }
+        return ret;
+    }
+
+    void start(IonRequestBuilder.EmitterTransform<T> load) {
+        boolean cancelled;
+        synchronized (this) {
+            this.load = load;
+            cancelled = done;
+        }
+        // every request was cancelled before the load started
+        if (cancelled) {
+            load.cancel();
+            return;
+        }
+        load.withResponse().setCallback(this);
+    }
+
+    private void release(CoalescedFuture future) {
+        Future<T> load;
+        synchronized (this) {
+            if (!waiters.remove(future) || !waiters.isEmpty() || done)
+                return;
+            done = true;
+            load = this.load;
+        }
+        ion.removeCoalescedLoad(this);
+        if (load != null)
+            load.cancel();
+    }
+
+    @Override
+    public void onCompleted(Exception e, Response<T> result) {
+        ArrayList<CoalescedFuture> waiters;
+        synchronized (this) {
+            if (done)
+                return;
+            done = true;
+            waiters = new ArrayList<CoalescedFuture>(this.waiters);
+            this.waiters.clear();
+        }
+        ion.removeCoalescedLoad(this);
+
+        // the response is missing if the request failed before it was sent
+        for (CoalescedFuture waiter: waiters) {
+            waiter.deliver(e, result);
+        }
+    }
+}
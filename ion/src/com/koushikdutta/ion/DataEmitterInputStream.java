@@ -0,0 +1,184 @@
+package com.koushikdutta.ion;
+
+import com.koushikdutta.async.ByteBufferList;
+import com.koushikdutta.async.DataEmitter;
+import com.koushikdutta.async.callback.CompletedCallback;
+import com.koushikdutta.async.callback.DataCallback;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A bounded pipe from a DataEmitter to a blocking InputStream, so a body can be parsed on
+ * a worker thread while it is still being transferred.
+ * The emitter is paused once the given number of bytes are waiting to be read, and resumed
+ * once the reader has drained half of them. Closing the stream closes the emitter.
+ */
+public class DataEmitterInputStream extends InputStream {
+    private final DataEmitter emitter;
+    private final int capacity;
+    // guarded by this
+    private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<ByteBuffer>();
+    private int buffered;
+    private boolean ended;
+    private Exception error;
+    private boolean closed;
+    private boolean paused;
+
+    /**
+     * Must be created on the thread of the emitter, before it emits any data.
+     * @param emitter
+     * @param capacity The number of bytes to buffer before the emitter is paused
+     */
+    public DataEmitterInputStream(DataEmitter emitter, int capacity) {
+        this(emitter, capacity, null);
+    }
+
+    /**
+     * Must be created on the thread of the emitter, before it emits any more data.
+     * @param emitter
+     * @param capacity The number of bytes to buffer before the emitter is paused
+     * @param head The data that was already read from the emitter, if any, which is read first
+     */
+    public DataEmitterInputStream(DataEmitter emitter, int capacity, ByteBufferList head) {
+        this.emitter = emitter;
+        this.capacity = capacity;
+        if (head != null)
+            add(head);
+        emitter.setDataCallback(new DataCallback() {
+            @Override
+            public void onDataAvailable(DataEmitter emitter, ByteBufferList data) {
+                add(data);
+            }
+        });
+        emitter.setEndCallback(new CompletedCallback() {
+            @Override
+            public void onCompleted(Exception ex) {
+                synchronized (DataEmitterInputStream.this) {
+                    ended = true;
+                    error = ex;
+                    DataEmitterInputStream.this.notifyAll();
+                }
+            }
+        });
+    }
+
+    private void add(ByteBufferList data) {
+        ByteBuffer[] all = data.getAllArray();
+        synchronized (this) {
+            if (closed) {
+                for (ByteBuffer b: all) {
+                    ByteBufferList.reclaim(b);
+                }
+                return;
+            }
+            for (ByteBuffer b: all) {
+                buffered += b.remaining();
+                buffers.add(b);
+            }
+            if (buffered >= capacity && !paused) {
+                paused = true;
+                emitter.pause();
+            }
+            notifyAll();
+        }
+    }
+
+    // wait for data, and return false at the end of the body
+    private boolean waitForData() throws IOException {
+        while (buffers.isEmpty()) {
+            if (closed)
+                throw new IOException("stream closed");
+            if (ended) {
+                if (error == null)
+                    return false;
+                IOException ret = new IOException("transfer failed");
+                ret.initCause(error);
+                throw ret;
+            }
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+        return true;
+    }
+
+    private void consumed(int count) {
+        buffered -= count;
+        if (paused && buffered <= capacity / 2) {
+            paused = false;
+            emitter.getServer().post(new Runnable() {
+                @Override
+                public void run() {
+                    emitter.resume();
+                }
+            });
+        }
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        if (!waitForData())
+            return -1;
+        ByteBuffer b = buffers.peek();
+        int ret = b.get() & 0xFF;
+        if (!b.hasRemaining())
+            ByteBufferList.reclaim(buffers.poll());
+        consumed(1);
+        return ret;
+    }
+
+    @Override
+    public synchronized int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0)
+            return 0;
+        if (!waitForData())
+            return -1;
+        int read = 0;
+        while (read < length && !buffers.isEmpty()) {
+            ByteBuffer b = buffers.peek();
+            int count = Math.min(length - read, b.remaining());
+            b.get(buffer, offset + read, count);
+            read += count;
+            if (!b.hasRemaining())
+                ByteBufferList.reclaim(buffers.poll());
+        }
+        consumed(read);
+        return read;
+    }
+
+    @Override
+    public synchronized int available() throws IOException {
+        return buffered;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            for (ByteBuffer b: buffers) {
+                ByteBufferList.reclaim(b);
+            }
+            buffers.clear();
+            buffered = 0;
+            notifyAll();
+            // the rest of the body is not wanted
+            if (ended)
+                return;
+        }
+        emitter.getServer().post(new Runnable() {
+            @Override
+            public void run() {
+                emitter.close();
+            }
+        });
+    }
+}
@@ -0,0 +1,203 @@
+package com.koushikdutta.ion;
+
+import com.koushikdutta.async.ByteBufferList;
+import com.koushikdutta.async.DataSink;
+import com.koushikdutta.async.callback.CompletedCallback;
+import com.koushikdutta.async.callback.WritableCallback;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A bounded pipe from a blocking OutputStream to a DataSink, so a body can be serialized on
+ * a worker thread while it is being sent. Writes are gathered into pooled buffers, and the
+ * writer blocks once the given number of bytes are waiting to be sent.
+ * Closing the stream reports completion once everything has been written to the sink.
+ * A writer that fails should abort the stream instead of closing it.
+ * If the sink is closed first, such as when the connection drops or the request is cancelled,
+ * the blocked writer is woken and its writes fail.
+ */
+public class DataSinkOutputStream extends OutputStream {
+    private final DataSink sink;
+    private final int bufferSize;
+    private final int capacity;
+    private final CompletedCallback completed;
+    // only accessed by the writer
+    private ByteBuffer current;
+    // guarded by this
+    private int queued;
+    private IOException error;
+    // only accessed on the thread of the sink
+    private final ByteBufferList pending = new ByteBufferList();
+    private CompletedCallback previousClosed;
+    private boolean ending;
+    private boolean reported;
+
+    /**
+     * @param sink
+     * @param bufferSize The size of the buffers that writes are gathered into
+     * @param capacity The number of bytes to queue before the writer blocks
+     * @param completed Invoked on the thread of the sink, once everything has been written,
+     * or the write failed
+     */
+    public DataSinkOutputStream(DataSink sink, int bufferSize, int capacity, CompletedCallback completed) {
+        this.sink = sink;
+        this.bufferSize = bufferSize;
+        this.capacity = capacity;
+        this.completed = completed;
+        sink.getServer().post(new Runnable() {
+            @Override
+            public void run() {
+                hook();
+            }
+        });
+    }
+
+    // runs on the thread of the sink, before anything is drained
+    private void hook() {
+        if (reported)
+            return;
+        sink.setWriteableCallback(new WritableCallback() {
+            @Override
+            public void onWriteable() {
+                drain();
+            }
+        });
+        previousClosed = sink.getClosedCallback();
+        sink.setClosedCallback(new CompletedCallback() {
+            @Override
+            public void onCompleted(Exception ex) {
+                if (previousClosed != null)
+                    previousClosed.onCompleted(ex);
+                fail(ex != null ? ex : new IOException("sink closed"));
+            }
+        });
+        if (!sink.isOpen())
+            fail(new IOException("sink closed"));
+    }
+
+    @Override
+    public void write(int oneByte) throws IOException {
+        write(new byte[] { (byte)oneByte }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) throws IOException {
+        while (count > 0) {
+            if (current == null)
+                current = ByteBufferList.obtain(bufferSize);
+            int copy = Math.min(count, current.remaining());
+            current.put(buffer, offset, copy);
+            offset += copy;
+            count -= copy;
+            if (!current.hasRemaining())
+                send();
+        }
+    }
+
+    private void send() throws IOException {
+        if (current == null || current.position() == 0)
+            return;
+        current.flip();
+        final ByteBuffer b = current;
+        current = null;
+        synchronized (this) {
+            while (error == null && queued >= capacity) {
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            if (error != null)
+                throw error;
+            queued += b.remaining();
+        }
+        sink.getServer().post(new Runnable() {
+            @Override
+            public void run() {
+                pending.add(b);
+                drain();
+            }
+        });
+    }
+
+    @Override
+    public void flush() throws IOException {
+        send();
+    }
+
+    @Override
+    public void close() throws IOException {
+        send();
+        sink.getServer().post(new Runnable() {
+            @Override
+            public void run() {
+                ending = true;
+                drain();
+            }
+        });
+    }
+
+    /**
+     * Stop writing and report the given failure, rather than completion.
+     * @param e
+     */
+    public void abort(final Exception e) {
+        if (current != null) {
+            ByteBufferList.reclaim(current);
+            current = null;
+        }
+        sink.getServer().post(new Runnable() {
+            @Override
+            public void run() {
+                fail(e);
+            }
+        });
+    }
+
+    private void fail(Exception e) {
+        synchronized (this) {
+            if (error == null) {
+                error = e instanceof IOException ? (IOException)e : new IOException(e.toString());
+                notifyAll();
+            }
+        }
+        report(e);
+    }
+
+    private void report(Exception e) {
+        if (reported)
+            return;
+        reported = true;
+        sink.setWriteableCallback(null);
+        sink.setClosedCallback(previousClosed);
+        pending.recycle();
+        completed.onCompleted(e);
+    }
+
+    private void drain() {
+        if (reported)
+            return;
+        if (!sink.isOpen()) {
+            fail(new IOException("sink closed"));
+            return;
+        }
+        int before = pending.remaining();
+        if (before > 0)
+            sink.write(pending);
+        int sent = before - pending.remaining();
+        if (sent > 0) {
+            synchronized (this) {
+                queued -= sent;
+                notifyAll();
+            }
+        }
+        // every buffer was posted before the end, so nothing else is coming
+        if (ending && pending.remaining() == 0)
+            report(null);
+    }
+}
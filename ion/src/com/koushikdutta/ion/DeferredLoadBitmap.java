@@ -5,6 +5,11 @@ package com.koushikdutta.ion;
  */
 public class DeferredLoadBitmap extends BitmapCallback {
     BitmapFetcher fetcher;
+    // deferred because loads were paused
+    boolean paused;
+    // higher priority loads leave the queue first
+    int priority;
+    long sequence;
     public DeferredLoadBitmap(Ion ion, String key, BitmapFetcher fetcher)  {
         super(ion, key, false);
         this.fetcher = fetcher;
@@ -0,0 +1,15 @@
+package com.koushikdutta.ion;
+
+import java.util.List;
+
+/**
+ * Callback that is invoked with the elements of a JSON array as they are parsed.
+ * See {@link com.koushikdutta.ion.builder.GsonFutureBuilder#asJsonArrayStream(Class, ElementCallback)}.
+ */
+public interface ElementCallback<T> {
+    /**
+     * onElements is invoked with each batch of elements, in the order they appear in the array
+     * @param elements The next batch of elements
+     */
+    void onElements(List<T> elements);
+}
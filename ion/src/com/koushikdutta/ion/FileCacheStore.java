@@ -9,13 +9,11 @@ import com.koushikdutta.async.future.Future;
 import com.koushikdutta.async.future.SimpleFuture;
 import com.koushikdutta.async.parser.AsyncParser;
 import com.koushikdutta.async.parser.DocumentParser;
-import com.koushikdutta.async.parser.StringParser;
 import com.koushikdutta.async.stream.FileDataSink;
 import com.koushikdutta.async.util.FileCache;
 import com.koushikdutta.ion.gson.GsonArrayParser;
 import com.koushikdutta.ion.gson.GsonObjectParser;
 import com.koushikdutta.ion.gson.GsonParser;
-import com.koushikdutta.ion.gson.GsonSerializer;
 
 import org.w3c.dom.Document;
 
@@ -37,7 +35,7 @@ public class FileCacheStore {
 
     private <T> Future<T> put(final T value, final AsyncParser<T> parser) {
         final SimpleFuture<T> ret = new SimpleFuture<T>();
-        Ion.getIoExecutorService().execute(new Runnable() {
+        ion.ioExecutor.execute(new Runnable() {
             @Override
             public void run() {
                 final String key = computeKey();
@@ -62,7 +60,7 @@ public class FileCacheStore {
     }
 
     public Future<String> putString(String value) {
-        return put(value, new StringParser());
+        return put(value, new TextParser());
     }
 
     public Future<JsonObject> putJsonObject(JsonObject value) {
@@ -88,17 +86,17 @@ public class FileCacheStore {
     */
 
     public <T> Future<T> put(T value, Class<T> clazz) {
-        return put(value, new GsonSerializer<T>(ion.configure().getGson(), clazz));
+        return put(value, ion.<T>getGsonSerializer(clazz));
     }
 
     public <T> Future<T> put(T value, TypeToken<T> token) {
-        return put(value, new GsonSerializer<T>(ion.configure().getGson(), token));
+        return put(value, ion.<T>getGsonSerializer(token.getType()));
     }
 
     private <T> Future<T> as(final AsyncParser<T> parser) {
         final SimpleFuture<T> ret = new SimpleFuture<T>();
 
-        Ion.getIoExecutorService().execute(new Runnable() {
+        ion.ioExecutor.execute(new Runnable() {
             @Override
             public void run() {
                 try {
@@ -135,11 +133,11 @@ public class FileCacheStore {
     }
 
     public String getString() {
-        return get(new StringParser());
+        return get(new TextParser());
     }
 
     public Future<String> asString() {
-        return as(new StringParser());
+        return as(new TextParser());
     }
 
     public Future<JsonObject> asJsonObject() {
@@ -167,19 +165,19 @@ public class FileCacheStore {
     }
 
     public <T> Future<T> as(Class<T> clazz) {
-        return as(new GsonSerializer<T>(ion.configure().getGson(), clazz));
+        return as(ion.<T>getGsonSerializer(clazz));
     }
 
     public <T> T get(Class<T> clazz) {
-        return get(new GsonSerializer<T>(ion.configure().getGson(), clazz));
+        return get(ion.<T>getGsonSerializer(clazz));
     }
 
     public <T> Future<T> as(TypeToken<T> token) {
-        return as(new GsonSerializer<T>(ion.configure().getGson(), token));
+        return as(ion.<T>getGsonSerializer(token.getType()));
     }
 
     public <T> T get(TypeToken<T> token) {
-        return get(new GsonSerializer<T>(ion.configure().getGson(), token));
+        return get(ion.<T>getGsonSerializer(token.getType()));
     }
 
     private String computeKey() {
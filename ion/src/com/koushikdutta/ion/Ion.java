@@ -7,11 +7,14 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.Process;
 import android.text.TextUtils;
 import android.util.Log;
 import android.widget.ImageView;
 
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapterFactory;
 import com.koushikdutta.async.AsyncServer;
 import com.koushikdutta.async.future.Future;
 import com.koushikdutta.async.future.FutureCallback;
@@ -20,7 +23,6 @@ import com.koushikdutta.async.http.AsyncHttpRequest;
 import com.koushikdutta.async.http.ResponseCacheMiddleware;
 import com.koushikdutta.async.http.libcore.RawHeaders;
 import com.koushikdutta.async.util.FileCache;
-import com.koushikdutta.async.util.FileUtility;
 import com.koushikdutta.async.util.HashList;
 import com.koushikdutta.ion.bitmap.BitmapInfo;
 import com.koushikdutta.ion.bitmap.IonBitmapCache;
@@ -29,6 +31,8 @@ import com.koushikdutta.ion.builder.FutureBuilder;
 import com.koushikdutta.ion.builder.LoadBuilder;
 import com.koushikdutta.ion.conscrypt.ConscryptMiddleware;
 import com.koushikdutta.ion.cookie.CookieMiddleware;
+import com.koushikdutta.ion.gson.GsonSerializer;
+import com.koushikdutta.ion.gson.JsonModels;
 import com.koushikdutta.ion.loader.AssetLoader;
 import com.koushikdutta.ion.loader.AsyncHttpRequestFactory;
 import com.koushikdutta.ion.loader.ContentLoader;
@@ -38,17 +42,15 @@ import com.koushikdutta.ion.loader.PackageIconLoader;
 import com.koushikdutta.ion.loader.ResourceLoader;
 import com.koushikdutta.ion.loader.VideoLoader;
 
-import org.apache.http.conn.ssl.BrowserCompatHostnameVerifier;
-
 import java.io.File;
-import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Type;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.WeakHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import javax.net.ssl.SSLContext;
 
@@ -58,8 +60,14 @@ import javax.net.ssl.SSLContext;
 public class Ion {
     static final Handler mainHandler = new Handler(Looper.getMainLooper());
     static int availableProcessors = Runtime.getRuntime().availableProcessors();
-    static ExecutorService ioExecutorService = Executors.newFixedThreadPool(4);
-    static ExecutorService bitmapExecutorService  = availableProcessors > 2 ? Executors.newFixedThreadPool(availableProcessors - 1) : Executors.newFixedThreadPool(1);
+    // blocking file and cache I/O, kept off the decode threads
+    static ExecutorService ioExecutorService = new PriorityExecutor(4, "ion-io", Process.THREAD_PRIORITY_BACKGROUND);
+    // cpu bound decodes and transforms, which the UI is usually waiting on
+    static ExecutorService bitmapExecutorService = new PriorityExecutor(availableProcessors > 2 ? availableProcessors - 1 : 1,
+        "ion-bitmap", Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_MORE_FAVORABLE);
+    // readers of large bodies that are parsed as they arrive. they block on the network for the
+    // whole transfer, so they have their own pool, rather than holding up the io pool.
+    static ExecutorService streamExecutorService = new PriorityExecutor(4, "ion-stream", Process.THREAD_PRIORITY_BACKGROUND);
     static HashMap<String, Ion> instances = new HashMap<String, Ion>();
 
     /**
@@ -134,10 +142,46 @@ public class Ion {
             throw new NullPointerException("Can not pass null context in to retrieve ion instance");
         Ion instance = instances.get(name);
         if (instance == null)
-            instances.put(name, instance = new Ion(context, name));
+            instances.put(name, instance = new Ion(context, name, new IonTransport(context, name)));
+        return instance;
+    }
+
+    /**
+     * Get the given Ion instance by name, building it on the given transport
+     * if it does not exist yet. Instances built on the same transport share
+     * the AsyncServer reactor, connection pools, response cache and cookies,
+     * but have their own bitmap cache, store and loaders.
+     * @param context
+     * @param name
+     * @param transport
+     * @return
+     */
+    public static Ion getInstance(Context context, String name, IonTransport transport) {
+        if (context == null)
+            throw new NullPointerException("Can not pass null context in to retrieve ion instance");
+        if (transport == null)
+            throw new NullPointerException("transport");
+        Ion instance = instances.get(name);
+        if (instance == null)
+            instances.put(name, instance = new Ion(context, name, transport));
+        else if (instance.transport != transport)
+            IonLog.w("Ion instance " + name + " already exists with a different transport");
         return instance;
     }
 
+    /**
+     * Get the given Ion instance by name, building it on the process wide
+     * shared transport if it does not exist yet.
+     * @param context
+     * @param name
+     * @return
+     */
+    public static Ion getSharedTransportInstance(Context context, String name) {
+        if (context == null)
+            throw new NullPointerException("Can not pass null context in to retrieve ion instance");
+        return getInstance(context, name, IonTransport.getShared(context));
+    }
+
     /**
      * Create a ImageView bitmap request builder
      * @param imageView
@@ -147,11 +191,18 @@ public class Ion {
         return getDefault(imageView.getContext()).build(imageView);
     }
 
+    IonTransport transport;
     AsyncHttpClient httpClient;
     ConscryptMiddleware conscryptMiddleware;
     CookieMiddleware cookieMiddleware;
     ResponseCacheMiddleware responseCache;
     FileCache storeCache;
+    FileCache mipmapCache;
+    // the proxies set with Config, applied to each request. guarded by this.
+    String proxyHost;
+    int proxyPort;
+    String secureProxyHost;
+    int secureProxyPort;
     HttpLoader httpLoader;
     ContentLoader contentLoader;
     ResourceLoader resourceLoader;
@@ -170,39 +221,26 @@ public class Ion {
     IonBitmapCache bitmapCache;
     Context context;
     IonImageViewRequestBuilder bitmapBuilder = new IonImageViewRequestBuilder(this);
-
-    private Ion(Context context, String name) {
+    LoadAdmission loadAdmission = new LoadAdmission();
+    HashMap<String, CoalescedLoad> coalescedLoads = new HashMap<String, CoalescedLoad>();
+    ExecutorService ioExecutor = ioExecutorService;
+    // keyed by the type they deserialize. cleared when the Gson or the io executor changes.
+    HashMap<Type, GsonSerializer> gsonSerializers = new HashMap<Type, GsonSerializer>();
+    ExecutorService bitmapExecutor = bitmapExecutorService;
+    ExecutorService streamExecutor = streamExecutorService;
+
+    private Ion(Context context, String name, IonTransport transport) {
         this.context = context = context.getApplicationContext();
         this.name = name;
+        this.transport = transport;
 
-        httpClient = new AsyncHttpClient(new AsyncServer("ion-" + name));
-        httpClient.getSSLSocketMiddleware().setHostnameVerifier(new BrowserCompatHostnameVerifier());
-        httpClient.insertMiddleware(conscryptMiddleware = new ConscryptMiddleware(context, httpClient.getSSLSocketMiddleware()));
-
-        File ionCacheDir = new File(context.getCacheDir(), name);
-        try {
-            responseCache = ResponseCacheMiddleware.addCache(httpClient, ionCacheDir, 10L * 1024L * 1024L);
-        }
-        catch (IOException e) {
-            IonLog.w("unable to set up response cache, clearing", e);
-            FileUtility.deleteDirectory(ionCacheDir);
-            try {
-                responseCache = ResponseCacheMiddleware.addCache(httpClient, ionCacheDir, 10L * 1024L * 1024L);
-            }
-            catch (IOException ex) {
-                IonLog.w("unable to set up response cache, failing", e);
-            }
-        }
+        httpClient = transport.httpClient;
+        conscryptMiddleware = transport.conscryptMiddleware;
+        cookieMiddleware = transport.cookieMiddleware;
+        responseCache = transport.responseCache;
 
         storeCache = new FileCache(new File(context.getFilesDir(), name), Long.MAX_VALUE, false);
 
-        // TODO: Support pre GB?
-        if (Build.VERSION.SDK_INT >= 9)
-            addCookieMiddleware();
-
-        httpClient.getSocketMiddleware().setConnectAllAddresses(true);
-        httpClient.getSSLSocketMiddleware().setConnectAllAddresses(true);
-
         bitmapCache = new IonBitmapCache(this);
 
         configure()
@@ -215,14 +253,36 @@ public class Ion {
                 .addLoader(fileLoader = new FileLoader());
     }
 
+    /**
+     * Get the default executor for decoding bitmaps, shared by the Ion instances
+     * that have not been configured with their own.
+     * See {@link Config#setBitmapLoadExecutorService(ExecutorService)}.
+     * @return
+     */
     public static ExecutorService getBitmapLoadExecutorService() {
         return bitmapExecutorService;
     }
 
+    /**
+     * Get the default executor for blocking I/O, shared by the Ion instances
+     * that have not been configured with their own.
+     * See {@link Config#setIoExecutorService(ExecutorService)}.
+     * @return
+     */
     public static ExecutorService getIoExecutorService() {
         return ioExecutorService;
     }
 
+    /**
+     * Get the default executor for parsing large responses as they arrive, shared by the
+     * Ion instances that have not been configured with their own.
+     * See {@link Config#setStreamExecutorService(ExecutorService)}.
+     * @return
+     */
+    public static ExecutorService getStreamExecutorService() {
+        return streamExecutorService;
+    }
+
     /**
      * Begin building an operation on the given file
      * @param context
@@ -297,33 +357,128 @@ public class Ion {
         return members.size();
     }
 
+    boolean paused;
+    WeakHashMap<Object, Boolean> pausedGroups = new WeakHashMap<Object, Boolean>();
+
+    /**
+     * Pause new ImageView loads, for example while a list is flinging.
+     * Memory cache hits are still served. Loads requested while paused are deferred,
+     * and on resume, only those for ImageViews that are still attached are started.
+     */
+    public void pause() {
+        assert Thread.currentThread() == Looper.getMainLooper().getThread();
+        paused = true;
+    }
+
+    /**
+     * Resume the ImageView loads that were deferred by pause.
+     */
+    public void resume() {
+        assert Thread.currentThread() == Looper.getMainLooper().getThread();
+        paused = false;
+        loadAdmission.unpark();
+        processDeferred();
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Pause new ImageView loads of the given group. The context of a request is also its group.
+     * @param group
+     */
+    public void pause(Object group) {
+        assert Thread.currentThread() == Looper.getMainLooper().getThread();
+        pausedGroups.put(group, true);
+    }
+
+    /**
+     * Resume the ImageView loads of the given group.
+     * @param group
+     */
+    public void resume(Object group) {
+        assert Thread.currentThread() == Looper.getMainLooper().getThread();
+        if (pausedGroups.remove(group) != null) {
+            loadAdmission.unpark();
+            processDeferred();
+        }
+    }
+
+    public boolean isPaused(Object group) {
+        return pausedGroups.containsKey(group);
+    }
+
+    boolean isPaused(IonRequestBuilder builder) {
+        if (paused)
+            return true;
+        if (pausedGroups.isEmpty())
+            return false;
+        if (pausedGroups.containsKey(builder.contextReference.getContext()))
+            return true;
+        if (builder.groups == null)
+            return false;
+        for (WeakReference<Object> ref: builder.groups) {
+            Object group = ref.get();
+            if (group != null && pausedGroups.containsKey(group))
+                return true;
+        }
+        return false;
+    }
+
+    // a deferred load is only worth starting if something other than
+    // a detached ImageView is waiting for it.
+    private boolean hasAttachedWaiter(String key) {
+        ArrayList<FutureCallback<BitmapInfo>> callbacks = bitmapsPending.get(key);
+        if (callbacks == null)
+            return false;
+        for (FutureCallback<BitmapInfo> callback: callbacks) {
+            if (!(callback instanceof IonDrawable.IonDrawableCallback))
+                return true;
+            if (((IonDrawable.IonDrawableCallback)callback).isAttached())
+                return true;
+        }
+        return false;
+    }
+
+    // drop the detached waiters of a deferred load, the same way IonDrawable.unregister
+    // drops a deferred load once nothing is waiting for it. returns false if something
+    // else is still waiting for the download, in which case it should be started.
+    private boolean dropDeferred(DeferredLoadBitmap deferredLoadBitmap) {
+        String bitmapKey = deferredLoadBitmap.fetcher.bitmapKey;
+        Object owner = bitmapsPending.tag(bitmapKey);
+        bitmapsPending.remove(bitmapKey);
+        if (owner instanceof TransformBitmap
+            && !bitmapsPending.removeItem(deferredLoadBitmap.key, (TransformBitmap)owner))
+            return false;
+        bitmapsPending.remove(deferredLoadBitmap.key);
+        return true;
+    }
+
     private Runnable processDeferred = new Runnable() {
         @Override
         public void run() {
-            if (BitmapFetcher.shouldDeferImageView(Ion.this))
-                return;
-            ArrayList<DeferredLoadBitmap> deferred = null;
-            for (String key: bitmapsPending.keySet()) {
-                Object owner = bitmapsPending.tag(key);
-                if (owner instanceof DeferredLoadBitmap) {
-                    DeferredLoadBitmap deferredLoadBitmap = (DeferredLoadBitmap)owner;
-                    if (deferred == null)
-                        deferred = new ArrayList<DeferredLoadBitmap>();
-                    deferred.add(deferredLoadBitmap);
+            DeferredLoadBitmap deferredLoadBitmap;
+            while (loadAdmission.hasCapacity() && (deferredLoadBitmap = loadAdmission.poll()) != null) {
+                // recycled ImageViews unregister, which removes the deferred load, and a later
+                // request for the same download replaces it.
+                if (bitmapsPending.tag(deferredLoadBitmap.key) != deferredLoadBitmap)
+                    continue;
+                // stay deferred while paused.
+                if (isPaused(deferredLoadBitmap.fetcher.builder)) {
+                    loadAdmission.park(deferredLoadBitmap);
+                    continue;
                 }
-            }
-
-            if (deferred == null)
-                return;
-            int count = 0;
-            for (DeferredLoadBitmap deferredLoadBitmap: deferred) {
+                // once resumed, loads that were requested during the pause only start
+                // if their ImageView is still attached.
+                if (deferredLoadBitmap.paused
+                    && !hasAttachedWaiter(deferredLoadBitmap.fetcher.bitmapKey)
+                    && dropDeferred(deferredLoadBitmap))
+                    continue;
                 bitmapsPending.tag(deferredLoadBitmap.key, null);
                 bitmapsPending.tag(deferredLoadBitmap.fetcher.bitmapKey, null);
+                // starting the load counts it against the limit
                 deferredLoadBitmap.fetcher.execute();
-                count++;
-                // do MAX_IMAGEVIEW_LOAD max. this may end up going over the MAX_IMAGEVIEW_LOAD threshhold
-                if (count > BitmapFetcher.MAX_IMAGEVIEW_LOAD)
-                    return;
             }
         }
     };
@@ -368,6 +523,13 @@ public class Ion {
         members.put(future, true);
     }
 
+    void removeCoalescedLoad(CoalescedLoad load) {
+        synchronized (coalescedLoads) {
+            if (coalescedLoads.get(load.key) == load)
+                coalescedLoads.remove(load.key);
+        }
+    }
+
     /**
      * Cancel all pending requests
      */
@@ -382,6 +544,18 @@ public class Ion {
             cancelAll(group);
     }
 
+    /**
+     * Tear down this instance: cancel its requests, release its bitmaps from the memory
+     * budget shared with the other instances, and forget it, so the next lookup of its
+     * name builds a new instance. The transport is not closed, since it may be shared.
+     */
+    public void release() {
+        if (instances.get(name) == this)
+            instances.remove(name);
+        cancelAll();
+        bitmapCache.release();
+    }
+
     /**
      * Cancel all pending requests associated with the given context
      * @param context
@@ -411,6 +585,41 @@ public class Ion {
         for (FutureSet futures: inFlight.values()) {
             Log.i(logtag, "Group size: " + futures.size());
         }
+        dump("Bitmap executor", bitmapExecutor);
+        dump("I/O executor", ioExecutor);
+        dump("Stream executor", streamExecutor);
+    }
+
+    /**
+     * Get the serializer for the given type. Serializers are kept per type and reused,
+     * so the Gson TypeAdapter of a type is only resolved once.
+     * @param type
+     * @return
+     */
+    <T> GsonSerializer<T> getGsonSerializer(Type type) {
+        Gson gson = config.getGson();
+        synchronized (gsonSerializers) {
+            GsonSerializer<T> ret = gsonSerializers.get(type);
+            if (ret == null) {
+                ret = new GsonSerializer<T>(gson, type);
+                ret.setExecutor(ioExecutor);
+                gsonSerializers.put(type, ret);
+            }
+            return ret;
+        }
+    }
+
+    private void clearGsonSerializers() {
+        synchronized (gsonSerializers) {
+            gsonSerializers.clear();
+        }
+    }
+
+    private void dump(String name, ExecutorService executorService) {
+        if (!(executorService instanceof PriorityExecutor))
+            return;
+        PriorityExecutor executor = (PriorityExecutor)executorService;
+        Log.i(logtag, name + " queued: " + executor.getQueueDepth() + " active: " + executor.getActiveCount() + " busy: " + executor.getBusyTime() + "ms");
     }
 
     /**
@@ -426,10 +635,6 @@ public class Ion {
     // maintain a list of futures that are in being processed, allow for bulk cancellation
     WeakHashMap<Object, FutureSet> inFlight = new WeakHashMap<Object, FutureSet>();
 
-    private void addCookieMiddleware() {
-        httpClient.insertMiddleware(cookieMiddleware = new CookieMiddleware(context, name));
-    }
-
     /**
      * Get or put an item from the cache
      * @return
@@ -454,6 +659,17 @@ public class Ion {
         return storeCache;
     }
 
+    /**
+     * Get the cache that holds the tile pyramids of deep zoom images.
+     * It is opened on first use, since opening it lists its directory.
+     * @return
+     */
+    synchronized FileCache getMipmapCache() {
+        if (mipmapCache == null)
+            mipmapCache = new FileCache(new File(context.getCacheDir(), name + "-mipmap"), LoadMipmap.MAX_CACHE_SIZE, false);
+        return mipmapCache;
+    }
+
     public String getName() {
         return name;
     }
@@ -486,6 +702,15 @@ public class Ion {
         return httpClient.getServer();
     }
 
+    /**
+     * Get the transport in use by this Ion instance. This may be shared
+     * with other Ion instances.
+     * @return
+     */
+    public IonTransport getTransport() {
+        return transport;
+    }
+
     public class Config {
         public HttpLoader getHttpLoader() {
             return httpLoader;
@@ -520,11 +745,19 @@ public class Ion {
          * Get the Gson object in use by this Ion instance.
          * This can be used to customize serialization and deserialization
          * from java objects.
+         * The TypeAdapters generated for {@link com.koushikdutta.ion.gson.JsonModel} classes
+         * are registered with the default Gson.
          * @return
          */
         public synchronized Gson getGson() {
-            if (gson == null)
-                gson = new Gson();
+            if (gson == null) {
+                // register the adapters generated for JsonModel classes, if any
+                TypeAdapterFactory factory = JsonModels.getTypeAdapterFactory();
+                if (factory != null)
+                    gson = new GsonBuilder().registerTypeAdapterFactory(factory).create();
+                else
+                    gson = new Gson();
+            }
             return gson;
         }
 
@@ -541,47 +774,139 @@ public class Ion {
         }
 
         /**
-         * Route all http requests through the given proxy.
+         * Route all http requests of this Ion instance through the given proxy.
+         * The proxy is applied to each request, rather than to the transport, so other
+         * instances that share the transport are not affected.
+         * A proxy set on the request itself takes precedence.
          * @param host
          * @param port
          */
         public void proxy(String host, int port) {
-            httpClient.getSocketMiddleware().enableProxy(host, port);
+            synchronized (Ion.this) {
+                proxyHost = host;
+                proxyPort = port;
+            }
         }
 
         /**
-         * Route all https requests through the given proxy.
+         * Route all https requests of this Ion instance through the given proxy.
          * Note that https proxying requires that the Android device has the appropriate
          * root certificate installed to function properly.
+         * Like {@link #proxy(String, int)}, this does not affect other instances.
          * @param host
          * @param port
          */
         public void proxySecure(String host, int port) {
-            httpClient.getSSLSocketMiddleware().enableProxy(host, port);
+            synchronized (Ion.this) {
+                secureProxyHost = host;
+                secureProxyPort = port;
+            }
         }
 
         /**
          * Disable routing of http requests through a previous provided proxy
          */
         public void disableProxy() {
-            httpClient.getSocketMiddleware().disableProxy();
+            proxy(null, 0);
         }
 
         /**
          * Disable routing of https requests through a previous provided proxy
          */
         public void disableSecureProxy() {
-            httpClient.getSocketMiddleware().disableProxy();
+            proxySecure(null, 0);
         }
 
         /**
          * Set the Gson object in use by this Ion instance.
          * This can be used to customize serialization and deserialization
          * from java objects.
+         * The generated TypeAdapters are not registered with a Gson set here, see
+         * {@link JsonModels#getTypeAdapterFactory()}.
          * @param gson
          */
         public void setGson(Gson gson) {
             Ion.this.gson = gson;
+            clearGsonSerializers();
+        }
+
+        /**
+         * Set the bounds of the number of bitmap loads that run at once for ImageViews.
+         * Within the bounds, the limit adapts to the latency and throughput of the network.
+         * Further loads are deferred until the running loads finish.
+         * Pass the same value for both to use a fixed limit.
+         * @param minImageViewLoads
+         * @param maxImageViewLoads
+         * @return
+         */
+        public Config setImageViewLoadLimits(int minImageViewLoads, int maxImageViewLoads) {
+            loadAdmission.getLimit().setBounds(minImageViewLoads, maxImageViewLoads);
+            return this;
+        }
+
+        public int getMinImageViewLoads() {
+            return loadAdmission.getLimit().getMinLimit();
+        }
+
+        public int getMaxImageViewLoads() {
+            return loadAdmission.getLimit().getMaxLimit();
+        }
+
+        /**
+         * @return The current limit on the number of bitmap loads that run at once for ImageViews.
+         */
+        public int getImageViewLoadLimit() {
+            return loadAdmission.getLimit().getLimit();
+        }
+
+        /**
+         * Set the executor that decodes and transforms bitmaps, and parses responses, for this Ion instance.
+         * The default executor is a PriorityExecutor with a thread per core, less one,
+         * shared by all instances. Tasks that are a PriorityRunnable carry the priority of their request.
+         * @param executorService
+         * @return
+         */
+        public Config setBitmapLoadExecutorService(ExecutorService executorService) {
+            bitmapExecutor = executorService;
+            return this;
+        }
+
+        public ExecutorService getBitmapLoadExecutorService() {
+            return bitmapExecutor;
+        }
+
+        /**
+         * Set the executor that runs the blocking I/O of this Ion instance, like
+         * opening files and streams and writing to the cache.
+         * The default executor is a PriorityExecutor with 4 threads, shared by all instances.
+         * @param executorService
+         * @return
+         */
+        public Config setIoExecutorService(ExecutorService executorService) {
+            ioExecutor = executorService;
+            clearGsonSerializers();
+            return this;
+        }
+
+        public ExecutorService getIoExecutorService() {
+            return ioExecutor;
+        }
+
+        /**
+         * Set the executor that parses large responses of this Ion instance as they arrive.
+         * Each task blocks on the network until its response has been read, so this should
+         * not be the io executor. The default executor is a PriorityExecutor with 4 threads,
+         * shared by all instances.
+         * @param executorService
+         * @return
+         */
+        public Config setStreamExecutorService(ExecutorService executorService) {
+            streamExecutor = executorService;
+            return this;
+        }
+
+        public ExecutorService getStreamExecutorService() {
+            return streamExecutor;
         }
 
         AsyncHttpRequestFactory asyncHttpRequestFactory = new AsyncHttpRequestFactory() {
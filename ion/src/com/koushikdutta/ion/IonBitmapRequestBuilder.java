@@ -11,6 +11,7 @@ import com.koushikdutta.async.future.Future;
 import com.koushikdutta.async.future.SimpleFuture;
 import com.koushikdutta.async.util.FileCache;
 import com.koushikdutta.ion.bitmap.BitmapInfo;
+import com.koushikdutta.ion.bitmap.BitmapMetadata;
 import com.koushikdutta.ion.bitmap.LocallyCachedStatus;
 import com.koushikdutta.ion.bitmap.PostProcess;
 import com.koushikdutta.ion.bitmap.Transform;
@@ -39,7 +40,9 @@ abstract class IonBitmapRequestBuilder implements BitmapFutureBuilder, Builders.
     boolean disableFadeIn;
     boolean animateGif = true;
     boolean deepZoom;
+    int previewThreshold;
     ArrayList<PostProcess> postProcess;
+    int priority = PriorityRunnable.DEFAULT_PRIORITY;
 
     void reset() {
         ion = null;
@@ -51,12 +54,15 @@ abstract class IonBitmapRequestBuilder implements BitmapFutureBuilder, Builders.
         animateGif = true;
         builder = null;
         deepZoom = false;
+        previewThreshold = 0;
         postProcess = null;
+        priority = PriorityRunnable.DEFAULT_PRIORITY;
     }
 
     public IonBitmapRequestBuilder(IonRequestBuilder builder) {
         this.builder = builder;
         ion = builder.ion;
+        priority = builder.priority;
     }
 
     public IonBitmapRequestBuilder(Ion ion) {
@@ -165,6 +171,11 @@ abstract class IonBitmapRequestBuilder implements BitmapFutureBuilder, Builders.
         return builder.ion.bitmapCache.get(bitmapKey);
     }
 
+    @Override
+    public BitmapMetadata asCachedMetadata() {
+        return ion.bitmapCache.getMetadata(computeDownloadKey());
+    }
+
     BitmapFetcher executeCache() {
         final String downloadKey = computeDownloadKey();
         String bitmapKey = computeBitmapKey(downloadKey);
@@ -180,7 +191,10 @@ abstract class IonBitmapRequestBuilder implements BitmapFutureBuilder, Builders.
         ret.transforms = transforms;
         ret.animateGif = animateGif;
         ret.deepZoom = deepZoom;
+        ret.previewThreshold = previewThreshold;
         ret.postProcess = postProcess;
+        ret.priority = priority;
+        builder.priority = priority;
 
         // see if this request can be fulfilled from the cache
         if (!builder.noCache) {
@@ -294,6 +308,12 @@ abstract class IonBitmapRequestBuilder implements BitmapFutureBuilder, Builders.
 		return this;
 	}
 
+    @Override
+    public IonBitmapRequestBuilder priority(int priority) {
+        this.priority = priority;
+        return this;
+    }
+
     @Override
     public IonBitmapRequestBuilder animateGif(boolean animateGif) {
         this.animateGif = animateGif;
@@ -15,14 +15,16 @@ import android.graphics.drawable.Drawable;
 import android.os.Looper;
 import android.os.SystemClock;
 import android.text.TextUtils;
+import android.view.ViewTreeObserver;
 import android.view.animation.Animation;
 import android.widget.ImageView;
 
 import com.koushikdutta.async.future.Future;
 import com.koushikdutta.async.future.FutureCallback;
 import com.koushikdutta.async.future.SimpleFuture;
-import com.koushikdutta.async.util.FileCache;
 import com.koushikdutta.ion.bitmap.BitmapInfo;
+import com.koushikdutta.ion.bitmap.RegionDecoderPool;
+import com.koushikdutta.ion.bitmap.TileMap;
 import com.koushikdutta.ion.future.ImageViewFuture;
 
 import java.lang.ref.WeakReference;
@@ -44,6 +46,8 @@ class IonDrawable extends Drawable {
     private int resizeWidth;
     private int resizeHeight;
     private Ion ion;
+    // waiting for the view to be measured before loading
+    ViewTreeObserver.OnPreDrawListener measureListener;
 
     public IonDrawable ion(Ion ion) {
         this.ion = ion;
@@ -94,6 +98,11 @@ class IonDrawable extends Drawable {
     public ImageViewFutureImpl getFuture() {
         return callback.imageViewFuture;
     }
+
+    // deliver a bitmap that was found in the memory cache once the view was measured
+    void deliver(BitmapInfo info) {
+        callback.onCompleted(info.exception, info);
+    }
     
     public IonDrawable setDisableFadeIn(boolean disableFadeIn) {
         this.disableFadeIn = disableFadeIn;
@@ -149,6 +158,31 @@ class IonDrawable extends Drawable {
 
             imageViewFuture.setComplete(e, imageView);
         }
+
+        boolean isAttached() {
+            ImageView imageView = imageViewRef.get();
+            if (imageView == null || imageView.getWindowToken() == null)
+                return false;
+            return imageView.getDrawable() == ionDrawableRef.get();
+        }
+
+        public void onPreview(BitmapInfo result) {
+            assert Thread.currentThread() == Looper.getMainLooper().getThread();
+            ImageView imageView = imageViewRef.get();
+            if (imageView == null)
+                return;
+
+            IonDrawable drawable = ionDrawableRef.get();
+            if (drawable == null)
+                return;
+
+            if (imageView.getDrawable() != drawable || !TextUtils.equals(bitmapKey, result.key))
+                return;
+
+            imageView.setImageDrawable(null);
+            drawable.setPreview(result);
+            imageView.setImageDrawable(drawable);
+        }
     }
 
     public void cancel() {
@@ -206,39 +240,68 @@ class IonDrawable extends Drawable {
     }
 
     int currentFrame;
-    private boolean invalidateScheduled;
+    // uptime at which the next gif frame is shown
+    private long nextFrameTime;
+    // registered with the AnimationClock
+    boolean animating;
     private int textureDim;
     private int maxLevel;
+    private TileScheduler tileScheduler;
+    private TilePrefetcher tilePrefetcher;
+    // reused on every frame, so deep zoom draws do not allocate
+    private final Rect clipRect = new Rect();
+    private final Rect tileRect = new Rect();
+    private final Rect sourceRect = new Rect();
+    // show a preview while the download continues. this does not unregister
+    // the drawable from the pending load, which will replace the preview.
+    IonDrawable setPreview(BitmapInfo info) {
+        this.info = info;
+        this.loadedFrom = info.loadedFrom;
+        currentFrame = 0;
+        nextFrameTime = 0;
+        invalidateSelf();
+        return this;
+    }
+
     public IonDrawable setBitmap(BitmapInfo info, int loadedFrom) {
         if (this.info == info)
             return this;
 
+        // the final image replaces the preview without fading in again
+        if (info != null && this.info != null && this.info.preview && TextUtils.equals(info.key, this.info.key) && info.drawTime == 0)
+            info.drawTime = this.info.drawTime;
+
         cancel();
+        if (tileScheduler != null) {
+            tileScheduler.cancelAll();
+            tileScheduler = null;
+            tilePrefetcher = null;
+        }
         this.loadedFrom = loadedFrom;
         this.info = info;
         currentFrame = 0;
-        invalidateScheduled = false;
+        nextFrameTime = 0;
         invalidateSelf();
         if (info == null) {
             callback.bitmapKey = null;
             return this;
         }
 
-        if (info.decoder != null) {
-            // find number of tiles across to fit
-            double wlevel = (double)info.originalSize.x / TILE_DIM;
-            double hlevel = (double)info.originalSize.y / TILE_DIM;
+        if (info.decoderPool == null && info.decoder != null)
+            info.decoderPool = new RegionDecoderPool(info.decoder, info.decoderFile);
 
+        if (info.decoderPool != null) {
             // find the level: find how many power of 2 tiles are necessary
             // to fit the entire image. ie, fit it into a square.
-            double level = Math.max(wlevel, hlevel);
-            level = Math.log(level) / LOG_2;
-
-            maxLevel = (int)Math.ceil(level);
+            maxLevel = LoadMipmap.getMaxLevel(info.originalSize);
 
             // now, we know the entire image will fit in a square image of
             // this dimension:
             textureDim = TILE_DIM << maxLevel;
+            if (info.tiles == null)
+                info.tiles = new TileMap<BitmapInfo>();
+            tileScheduler = new TileScheduler(ion, info, tileCallback);
+            tilePrefetcher = new TilePrefetcher(tileScheduler, textureDim, maxLevel);
         }
 
         callback.bitmapKey = info.key;
@@ -328,12 +391,24 @@ class IonDrawable extends Drawable {
         return placeholder;
     }
 
+    // a preview is decoded smaller than the final image, so report the size of the
+    // final image, scaled for density the same way the final bitmap will be
+    private int scalePreviewSize(int size, Bitmap preview) {
+        int density = preview.getDensity();
+        int target = resources.getDisplayMetrics().densityDpi;
+        if (density == Bitmap.DENSITY_NONE || density == target)
+            return size;
+        return (size * target + (density >> 1)) / density;
+    }
+
     @Override
     public int getIntrinsicWidth() {
         // first check if image was loaded
         if (info != null) {
-            if (info.decoder != null)
+            if (info.decoderPool != null)
                 return info.originalSize.x;
+            if (info.bitmaps != null && info.preview)
+                return scalePreviewSize(info.originalSize.x, info.bitmaps[0]);
             if (info.bitmaps != null)
                 return info.bitmaps[0].getScaledWidth(resources.getDisplayMetrics().densityDpi);
         }
@@ -357,8 +432,10 @@ class IonDrawable extends Drawable {
     @Override
     public int getIntrinsicHeight() {
         if (info != null) {
-            if (info.decoder != null)
+            if (info.decoderPool != null)
                 return info.originalSize.y;
+            if (info.bitmaps != null && info.preview)
+                return scalePreviewSize(info.originalSize.y, info.bitmaps[0]);
             if (info.bitmaps != null)
                 return info.bitmaps[0].getScaledHeight(resources.getDisplayMetrics().densityDpi);
         }
@@ -376,17 +453,42 @@ class IonDrawable extends Drawable {
     }
 
     public static final long FADE_DURATION = 200;
-    private Runnable invalidate = new Runnable() {
-        @Override
-        public void run() {
-            invalidateScheduled = false;
+
+    private boolean isFading(long now) {
+        return !disableFadeIn && info != null && info.drawTime != 0 && now - info.drawTime < FADE_DURATION;
+    }
+
+    private boolean isAnimatedGif() {
+        return info != null && info.decoderPool == null && info.bitmaps != null && info.delays != null;
+    }
+
+    private int getFrameDelay() {
+        return Math.max(info.delays[currentFrame % info.delays.length], 100);
+    }
+
+    // called by the AnimationClock. returns true if the drawable needs to be redrawn.
+    boolean advanceAnimation(long now) {
+        boolean ret = isFading(now);
+        if (isAnimatedGif() && nextFrameTime != 0 && now >= nextFrameTime) {
             currentFrame++;
-            invalidateSelf();
+            nextFrameTime = now + getFrameDelay();
+            ret = true;
         }
-    };
+        return ret;
+    }
+
+    // called by the AnimationClock. returns the uptime at which the drawable next needs
+    // to be advanced, or -1 if it is no longer animating.
+    long getNextAnimationTime(long now) {
+        if (isFading(now))
+            return now;
+        if (isAnimatedGif() && nextFrameTime != 0)
+            return nextFrameTime;
+        return -1;
+    }
 
     private static final double LOG_2 = Math.log(2);
-    private static final int TILE_DIM = 256;
+    private static final int TILE_DIM = LoadMipmap.TILE_DIM;
 
     FutureCallback<BitmapInfo> tileCallback = new FutureCallback<BitmapInfo>() {
         @Override
@@ -468,7 +570,7 @@ class IonDrawable extends Drawable {
             }
         }
 
-        if (info.decoder != null) {
+        if (info.decoderPool != null) {
             // zoom 0: entire image fits in a TILE_DIMxTILE_DIM square
 
             // draw base bitmap for empty tiles
@@ -480,7 +582,8 @@ class IonDrawable extends Drawable {
 
             // TODO: crossfading?
 
-            Rect clip = canvas.getClipBounds();
+            Rect clip = clipRect;
+            canvas.getClipBounds(clip);
             Rect bounds = getBounds();
 
             float zoom = (float)canvas.getWidth() / (float)clip.width();
@@ -524,6 +627,8 @@ class IonDrawable extends Drawable {
             while (textureTileDim / sampleSize > TILE_DIM)
                 sampleSize <<= 1;
 
+            tileScheduler.beginFrame(level, clip.centerX(), clip.centerY());
+            TileMap<BitmapInfo> tiles = info.tiles;
             for (int y = 0; y < levelTiles; y++) {
                 int top = textureTileDim * y;
                 int bottom = textureTileDim * (y + 1);
@@ -543,27 +648,26 @@ class IonDrawable extends Drawable {
                     if (left > visibleRight)
                         break;
 
-                    Rect texRect = new Rect(left, top, right, bottom);
+                    Rect texRect = tileRect;
+                    texRect.set(left, top, right, bottom);
 
                     // find, render/fetch
 //                    System.out.println("rendering: " + texRect + " for: " + bounds);
-                    String tileKey = FileCache.toKeyString(info.key, ",", level, ",", x, ",", y);
-                    BitmapInfo tile = ion.bitmapCache.get(tileKey);
+                    long tileKey = TileMap.key(level, x, y);
+                    BitmapInfo tile = tiles.get(tileKey);
+                    // not in the tile map, fetch it, nearest the center of the viewport first.
+                    // this also picks up tiles that are still in the bitmap cache.
+                    if (tile == null)
+                        tile = tileScheduler.request(level, x, y, texRect, sampleSize);
                     if (tile != null && tile.bitmaps != null) {
                         // render it
 //                        System.out.println("bitmap is: " + tile.bitmaps[0].getWidth() + "x" + tile.bitmaps[0].getHeight());
+                        tileScheduler.onTileDrawn(tileKey);
+                        tileScheduler.onTileVisible(tile);
                         canvas.drawBitmap(tile.bitmaps[0], null, texRect, paint);
                         continue;
                     }
 
-                    // TODO: cancellation of unnecessary regions when fast pan/zooming
-                    if (ion.bitmapsPending.tag(tileKey) == null) {
-                        // fetch it
-//                        System.out.println(info.key + ": fetching region: " + texRect + " sample size: " + sampleSize);
-                        LoadBitmapRegion region = new LoadBitmapRegion(ion, tileKey, info.decoder, texRect, sampleSize);
-                    }
-                    ion.bitmapsPending.add(tileKey, tileCallback);
-
                     int parentLeft = 0;
                     int parentTop = 0;
                     int parentUp = 1;
@@ -576,8 +680,7 @@ class IonDrawable extends Drawable {
                     int parentY = y >> 1;
 
                     while (parentLevel >= 0) {
-                        tileKey = FileCache.toKeyString(info.key, ",", parentLevel, ",", parentX, ",", parentY);
-                        tile = ion.bitmapCache.get(tileKey);
+                        tile = tiles.get(TileMap.key(parentLevel, parentX, parentY));
                         if (tile != null && tile.bitmaps != null)
                             break;
                         if (parentX % 2 == 1) {
@@ -607,7 +710,8 @@ class IonDrawable extends Drawable {
                     subTextureDim >>= parentUp;
                     int sourceLeft = subTextureDim * parentLeft;
                     int sourceTop = subTextureDim * parentTop;
-                    Rect sourceRect = new Rect(sourceLeft, sourceTop, sourceLeft + subTextureDim, sourceTop + subTextureDim);
+                    sourceRect.set(sourceLeft, sourceTop, sourceLeft + subTextureDim, sourceTop + subTextureDim);
+                    tileScheduler.onTileVisible(tile);
                     canvas.drawBitmap(tile.bitmaps[0], sourceRect, texRect, paint);
 
                     if (DEBUG_ZOOM) {
@@ -618,18 +722,20 @@ class IonDrawable extends Drawable {
                     }
                 }
             }
+            // warm the tiles the viewport is heading toward, then
+            // cancel the tiles that have scrolled out of view
+            tilePrefetcher.update(clip, bounds, level);
+            tileScheduler.endFrame();
         }
         else if (info.bitmaps != null) {
             paint.setAlpha((int)destAlpha);
             canvas.drawBitmap(info.bitmaps[currentFrame % info.bitmaps.length], null, getBounds(), paint);
             paint.setAlpha(0xFF);
             if (info.delays != null) {
-                int delay = info.delays[currentFrame % info.delays.length];
-                if (!invalidateScheduled) {
-                    invalidateScheduled = true;
-                    unscheduleSelf(invalidate);
-                    scheduleSelf(invalidate, SystemClock.uptimeMillis() + Math.max(delay, 100));
-                }
+                // the shared clock advances the frames
+                if (nextFrameTime == 0)
+                    nextFrameTime = SystemClock.uptimeMillis() + getFrameDelay();
+                AnimationClock.getInstance().register(this);
             }
         }
         else {
@@ -642,7 +748,7 @@ class IonDrawable extends Drawable {
         }
 
         if (destAlpha != 255)
-            invalidateSelf();
+            AnimationClock.getInstance().register(this);
 
         if (true)
             return;
@@ -1,10 +1,12 @@
 package com.koushikdutta.ion;
 
 import android.graphics.Bitmap;
+import android.graphics.Point;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Looper;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.view.animation.Animation;
 import android.widget.ImageView;
 
@@ -33,6 +35,7 @@ public class IonImageViewRequestBuilder extends IonBitmapRequestBuilder implemen
     int loadAnimationResource;
     int inAnimationResource;
     ContextReference.ImageViewContextReference imageViewPostRef;
+    boolean measureBeforeLoad;
 
     public IonImageViewRequestBuilder(IonRequestBuilder builder) {
         super(builder);
@@ -54,6 +57,7 @@ public class IonImageViewRequestBuilder extends IonBitmapRequestBuilder implemen
         inAnimationResource = 0;
         loadAnimation = null;
         loadAnimationResource = 0;
+        measureBeforeLoad = false;
     }
 
     @Override
@@ -83,8 +87,10 @@ public class IonImageViewRequestBuilder extends IonBitmapRequestBuilder implemen
     }
 
     private IonDrawable setIonDrawable(ImageView imageView, BitmapInfo info, int loadedFrom) {
-        IonDrawable ret = IonDrawable.getOrCreateIonDrawable(imageView)
-        .ion(ion)
+        IonDrawable ret = IonDrawable.getOrCreateIonDrawable(imageView);
+        // a newer request replaces one that is waiting for the view to be measured
+        cancelMeasure(imageView, ret);
+        ret.ion(ion)
         .setBitmap(info, loadedFrom)
         .setSize(resizeWidth, resizeHeight)
         .setError(errorResource, errorDrawable)
@@ -109,8 +115,17 @@ public class IonImageViewRequestBuilder extends IonBitmapRequestBuilder implemen
 
         withImageView(imageView);
 
+        // measure before setting the drawable, which requests another layout.
+        Point measured = null;
+        boolean measure = measureBeforeLoad && !deepZoom && resizeWidth == 0 && resizeHeight == 0;
+        if (measure)
+            measured = measure(imageView);
+
         // executeCache the request, see if we get a bitmap from cache.
+        // a full size decode is also good for a measured view.
         BitmapFetcher bitmapFetcher = executeCache();
+        if (bitmapFetcher.info == null && measured != null && (measured.x != 0 || measured.y != 0))
+            bitmapFetcher.measured(measured.x, measured.y);
         if (bitmapFetcher.info != null) {
             doAnimation(imageView, null, 0);
             IonDrawable drawable = setIonDrawable(imageView, bitmapFetcher.info, Loader.LoaderEmitter.LOADED_FROM_MEMORY);
@@ -125,18 +140,104 @@ public class IonImageViewRequestBuilder extends IonBitmapRequestBuilder implemen
         doAnimation(imageView, loadAnimation, loadAnimationResource);
         IonDrawable.ImageViewFutureImpl imageViewFuture = drawable.getFuture();
         imageViewFuture.reset();
+
+        if (measure && measured == null) {
+            MeasureBeforeLoad listener = new MeasureBeforeLoad(imageView, drawable, bitmapFetcher);
+            drawable.measureListener = listener;
+            imageView.getViewTreeObserver().addOnPreDrawListener(listener);
+            return imageViewFuture;
+        }
+
         drawable.register(ion, bitmapFetcher.bitmapKey);
+        load(bitmapFetcher);
 
-        // nothing from cache, check to see if there's too many imageview loads
-        // already in progress
-        if (BitmapFetcher.shouldDeferImageView(ion)) {
+        return imageViewFuture;
+    }
+
+    private static void load(BitmapFetcher bitmapFetcher) {
+        Ion ion = bitmapFetcher.builder.ion;
+        // nothing from cache, check to see if loads are paused, or if there's too
+        // many imageview loads already in progress
+        if (ion.isPaused(bitmapFetcher.builder)) {
+            bitmapFetcher.defer().paused = true;
+        }
+        else if (ion.loadAdmission.shouldDefer()) {
             bitmapFetcher.defer();
         }
         else {
             bitmapFetcher.execute();
         }
+    }
 
-        return imageViewFuture;
+    /**
+     * Find the size to decode for.
+     * Views that wrap their content are not constrained on that axis, and views that
+     * were laid out without a size are decoded for the screen.
+     * @return The size, (0, 0) to decode for the screen, or null if the view has not been measured yet.
+     */
+    static Point measure(ImageView imageView) {
+        ViewGroup.LayoutParams lp = imageView.getLayoutParams();
+        boolean wrapWidth = lp != null && lp.width == ViewGroup.LayoutParams.WRAP_CONTENT;
+        boolean wrapHeight = lp != null && lp.height == ViewGroup.LayoutParams.WRAP_CONTENT;
+        // the size of a view that wraps its content comes from the image
+        if (wrapWidth && wrapHeight)
+            return new Point();
+        int width = imageView.getWidth() - imageView.getPaddingLeft() - imageView.getPaddingRight();
+        int height = imageView.getHeight() - imageView.getPaddingTop() - imageView.getPaddingBottom();
+        if ((wrapWidth || width > 0) && (wrapHeight || height > 0))
+            return new Point(wrapWidth ? -1 : width, wrapHeight ? -1 : height);
+        if (imageView.getWindowToken() == null || imageView.isLayoutRequested())
+            return null;
+        return new Point();
+    }
+
+    private static void cancelMeasure(ImageView imageView, IonDrawable drawable) {
+        if (drawable.measureListener == null)
+            return;
+        ViewTreeObserver observer = imageView.getViewTreeObserver();
+        if (observer.isAlive())
+            observer.removeOnPreDrawListener(drawable.measureListener);
+        drawable.measureListener = null;
+    }
+
+    // starts a load once the view has been laid out, just before it is drawn
+    static class MeasureBeforeLoad implements ViewTreeObserver.OnPreDrawListener {
+        ImageView imageView;
+        IonDrawable drawable;
+        BitmapFetcher bitmapFetcher;
+
+        public MeasureBeforeLoad(ImageView imageView, IonDrawable drawable, BitmapFetcher bitmapFetcher) {
+            this.imageView = imageView;
+            this.drawable = drawable;
+            this.bitmapFetcher = bitmapFetcher;
+        }
+
+        @Override
+        public boolean onPreDraw() {
+            // replaced by another request
+            if (drawable.measureListener != this || imageView.getDrawable() != drawable) {
+                ViewTreeObserver observer = imageView.getViewTreeObserver();
+                if (observer.isAlive())
+                    observer.removeOnPreDrawListener(this);
+                return true;
+            }
+
+            Point measured = measure(imageView);
+            if (measured == null)
+                return true;
+            cancelMeasure(imageView, drawable);
+
+            if (measured.x != 0 || measured.y != 0)
+                bitmapFetcher.measured(measured.x, measured.y);
+            if (bitmapFetcher.info != null) {
+                drawable.deliver(bitmapFetcher.info);
+                return true;
+            }
+
+            drawable.register(bitmapFetcher.builder.ion, bitmapFetcher.bitmapKey);
+            load(bitmapFetcher);
+            return true;
+        }
     }
 
     private Drawable getImageViewDrawable() {
@@ -199,6 +300,27 @@ public class IonImageViewRequestBuilder extends IonBitmapRequestBuilder implemen
             resizeHeight = lp.height;
     }
 
+    @Override
+    public IonImageViewRequestBuilder measureBeforeLoad() {
+        measureBeforeLoad = true;
+        return this;
+    }
+
+    public static final int DEFAULT_PREVIEW_THRESHOLD = 64 * 1024;
+
+    @Override
+    public IonImageViewRequestBuilder progressivePreview(int byteThreshold) {
+        if (deepZoom)
+            throw new IllegalStateException("Can not show a progressive preview with deepZoom.");
+        previewThreshold = byteThreshold;
+        return this;
+    }
+
+    @Override
+    public IonImageViewRequestBuilder progressivePreview() {
+        return progressivePreview(DEFAULT_PREVIEW_THRESHOLD);
+    }
+
     @Override
     public IonImageViewRequestBuilder placeholder(Drawable drawable) {
         placeholderDrawable = drawable;
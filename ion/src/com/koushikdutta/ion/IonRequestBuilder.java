@@ -5,6 +5,7 @@ import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Base64;
 import android.util.Log;
@@ -23,6 +24,7 @@ import com.koushikdutta.async.DataTrackingEmitter.DataTracker;
 import com.koushikdutta.async.FilteredDataEmitter;
 import com.koushikdutta.async.Util;
 import com.koushikdutta.async.callback.CompletedCallback;
+import com.koushikdutta.async.callback.DataCallback;
 import com.koushikdutta.async.future.Future;
 import com.koushikdutta.async.future.FutureCallback;
 import com.koushikdutta.async.future.SimpleFuture;
@@ -45,11 +47,12 @@ import com.koushikdutta.async.http.server.AsyncHttpServer;
 import com.koushikdutta.async.parser.AsyncParser;
 import com.koushikdutta.async.parser.ByteBufferListParser;
 import com.koushikdutta.async.parser.DocumentParser;
-import com.koushikdutta.async.parser.StringParser;
 import com.koushikdutta.async.stream.FileDataSink;
 import com.koushikdutta.async.stream.OutputStreamDataSink;
+import com.koushikdutta.async.util.StreamUtility;
 import com.koushikdutta.ion.Loader.LoaderEmitter;
 import com.koushikdutta.ion.bitmap.BitmapInfo;
+import com.koushikdutta.ion.bitmap.BitmapMetadata;
 import com.koushikdutta.ion.bitmap.LocallyCachedStatus;
 import com.koushikdutta.ion.builder.Builders;
 import com.koushikdutta.ion.builder.FutureBuilder;
@@ -57,8 +60,10 @@ import com.koushikdutta.ion.builder.LoadBuilder;
 import com.koushikdutta.ion.future.ImageViewFuture;
 import com.koushikdutta.ion.future.ResponseFuture;
 import com.koushikdutta.ion.gson.GsonArrayParser;
+import com.koushikdutta.ion.gson.GsonArrayStreamParser;
 import com.koushikdutta.ion.gson.GsonBody;
 import com.koushikdutta.ion.gson.GsonObjectParser;
+import com.koushikdutta.ion.gson.GsonParser;
 import com.koushikdutta.ion.gson.GsonSerializer;
 import com.koushikdutta.ion.gson.PojoBody;
 
@@ -70,9 +75,12 @@ import java.io.File;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.ref.WeakReference;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Semaphore;
 
 /**
  * Created by koush on 5/21/13.
@@ -160,6 +168,27 @@ class IonRequestBuilder implements Builders.Any.B, Builders.Any.F, Builders.Any.
         return setHeader("Cache-Control", "no-cache");
     }
 
+    boolean coalesce;
+    @Override
+    public IonRequestBuilder coalesce() {
+        coalesce = true;
+        return this;
+    }
+
+    int priority = PriorityRunnable.DEFAULT_PRIORITY;
+    @Override
+    public IonRequestBuilder priority(int priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    boolean parseInline;
+    @Override
+    public IonRequestBuilder parseInline() {
+        parseInline = true;
+        return this;
+    }
+
     Multimap query;
     @Override
     public IonRequestBuilder addQuery(String name, String value) {
@@ -202,12 +231,16 @@ class IonRequestBuilder implements Builders.Any.B, Builders.Any.F, Builders.Any.
 
     @Override
     public IonRequestBuilder setJsonObjectBody(JsonObject jsonObject) {
-        return setBody(new GsonBody<JsonObject>(ion.configure().getGson(), jsonObject));
+        GsonBody<JsonObject> jsonBody = new GsonBody<JsonObject>(ion.configure().getGson(), jsonObject);
+        jsonBody.setExecutor(ion.ioExecutor);
+        return setBody(jsonBody);
     }
 
     @Override
     public IonRequestBuilder setJsonArrayBody(JsonArray jsonArray) {
-        return setBody(new GsonBody<JsonArray>(ion.configure().getGson(), jsonArray));
+        GsonBody<JsonArray> jsonBody = new GsonBody<JsonArray>(ion.configure().getGson(), jsonArray);
+        jsonBody.setExecutor(ion.ioExecutor);
+        return setBody(jsonBody);
     }
 
     @Override
@@ -281,7 +314,18 @@ class IonRequestBuilder implements Builders.Any.B, Builders.Any.F, Builders.Any.
         request.setLogging(ion.logtag, ion.logLevel);
         if (logTag != null)
             request.setLogging(logTag, logLevel);
-        request.enableProxy(proxyHost, proxyPort);
+        if (proxyHost != null) {
+            request.enableProxy(proxyHost, proxyPort);
+        }
+        else {
+            // the proxy of the instance, since the transport may be shared with other instances
+            synchronized (ion) {
+                if ("https".equalsIgnoreCase(uri.getScheme()))
+                    request.enableProxy(ion.secureProxyHost, ion.secureProxyPort);
+                else
+                    request.enableProxy(ion.proxyHost, ion.proxyPort);
+            }
+        }
         request.setTimeout(timeoutMilliseconds);
         request.logd("preparing request");
         return request;
@@ -403,6 +447,14 @@ class IonRequestBuilder implements Builders.Any.B, Builders.Any.F, Builders.Any.
         Runnable cancelCallback;
         RawHeaders headers;
         DataEmitter emitter;
+        // the body being parsed as it arrives, if any
+        InputStream stream;
+        // timings of the load, in elapsed milliseconds
+        long startTime = SystemClock.elapsedRealtime();
+        long headersTime;
+        volatile int bytesRead;
+        // the priority of the work that processes the result
+        int priority = IonRequestBuilder.this.priority;
 
         public Response<T> getResponse(Exception e, T result) {
             Response<T> response = new Response<T>();
@@ -451,6 +503,9 @@ class IonRequestBuilder implements Builders.Any.B, Builders.Any.F, Builders.Any.
             super.cancelCleanup();
             if (emitter != null)
                 emitter.close();
+            // wake the parser that is blocked on the body
+            if (stream != null)
+                StreamUtility.closeQuietly(stream);
             if (cancelCallback != null)
                 cancelCallback.run();
         }
@@ -463,6 +518,7 @@ class IonRequestBuilder implements Builders.Any.B, Builders.Any.F, Builders.Any.
 
         @Override
         protected void transform(LoaderEmitter emitter) throws Exception {
+            this.headersTime = SystemClock.elapsedRealtime();
             this.emitter = emitter.getDataEmitter();
             this.loadedFrom = emitter.loadedFrom();
             this.headers = emitter.getHeaders();
@@ -503,6 +559,7 @@ class IonRequestBuilder implements Builders.Any.B, Builders.Any.F, Builders.Any.
                         return;
                     }
 
+                    bytesRead = totalBytesRead;
                     final int percent = (int)((float)totalBytesRead / total * 100f);
 
                     if ((progressBar != null || progressDialog != null) && percent != lastPercent) {
@@ -605,18 +662,109 @@ class IonRequestBuilder implements Builders.Any.B, Builders.Any.F, Builders.Any.
         return execute(parser, null);
     }
 
+    // bodies larger than this are parsed as they arrive by a StreamingParser, as are bodies of
+    // unknown length once this much of them has been buffered
+    static final int STREAM_THRESHOLD = 64 * 1024;
+    // the most that is read ahead of a StreamingParser
+    static final int STREAM_CAPACITY = 256 * 1024;
+
+    // these parsers read or decode the whole body on the thread that delivers it
+    private static boolean isBuffered(AsyncParser parser) {
+        return parser instanceof GsonParser || parser instanceof GsonSerializer
+            || parser instanceof TextParser || parser instanceof DocumentParser;
+    }
+
     <T> EmitterTransform<T> execute(final AsyncParser<T> parser, Runnable cancel) {
         assert parser != null;
+        // element streams must never hold the whole array, so they are always streamed
+        final boolean alwaysStream = parser instanceof GsonArrayStreamParser;
+        final boolean offload = alwaysStream || !parseInline && isBuffered(parser);
         EmitterTransform<T> ret = new EmitterTransform<T>(cancel) {
             EmitterTransform<T> self = this;
             @Override
             protected void transform(LoaderEmitter emitter) throws Exception {
                 super.transform(emitter);
-                parser.parse(this.emitter).setCallback(new FutureCallback<T>() {
+                long length = emitter.length();
+                // decoded text is sized for the body up front
+                if (parser instanceof TextParser)
+                    ((TextParser)parser).length = length;
+                final FutureCallback<T> callback = new FutureCallback<T>() {
                     @Override
                     public void onCompleted(Exception e, T result) {
                         postExecute(self, e, result);
                     }
+                };
+                if (!offload) {
+                    parser.parse(this.emitter).setCallback(callback);
+                    return;
+                }
+
+                final boolean streaming = parser instanceof StreamingParser;
+                if (streaming && (alwaysStream || length > STREAM_THRESHOLD)) {
+                    stream(null);
+                    return;
+                }
+
+                // read the body on the AsyncServer thread, and parse it on the compute pool,
+                // so a large body does not stall the other requests on the AsyncServer.
+                // a body of unknown length is streamed instead once too much of it is buffered.
+                final DataEmitter source = this.emitter;
+                final ByteBufferList body = new ByteBufferList();
+                source.setDataCallback(new DataCallback() {
+                    @Override
+                    public void onDataAvailable(DataEmitter emitter, ByteBufferList data) {
+                        data.get(body);
+                        if (streaming && body.remaining() > STREAM_THRESHOLD)
+                            stream(body);
+                    }
+                });
+                source.setEndCallback(new CompletedCallback() {
+                    @Override
+                    public void onCompleted(Exception ex) {
+                        if (ex != null) {
+                            body.recycle();
+                            postExecute(self, ex, null);
+                            return;
+                        }
+                        ion.bitmapExecutor.execute(new PriorityRunnable(priority) {
+                            @Override
+                            public void run() {
+                                if (isCancelled())
+                                    return;
+                                BufferedDataEmitter buffered = new BufferedDataEmitter(source);
+                                parser.parse(buffered).setCallback(callback);
+                                buffered.replay(body);
+                            }
+                        });
+                    }
+                });
+            }
+
+            // parse the body on the stream pool while it is still being transferred, so only
+            // a bounded part of it is in memory at once. The thread blocks on the network,
+            // so neither the compute pool nor the io pool is used.
+            private void stream(ByteBufferList head) {
+                final String charset = this.emitter.charset();
+                final DataEmitterInputStream stream = new DataEmitterInputStream(this.emitter, STREAM_CAPACITY, head);
+                this.stream = stream;
+                ion.streamExecutor.execute(new PriorityRunnable(priority) {
+                    @Override
+                    public void run() {
+                        T result;
+                        try {
+                            if (isCancelled())
+                                return;
+                            result = ((StreamingParser<T>)parser).parse(stream, charset);
+                        }
+                        catch (Exception e) {
+                            postExecute(self, e, null);
+                            return;
+                        }
+                        finally {
+                            StreamUtility.closeQuietly(stream);
+                        }
+                        postExecute(self, null, result);
+                    }
                 });
             }
         };
@@ -639,24 +787,93 @@ class IonRequestBuilder implements Builders.Any.B, Builders.Any.F, Builders.Any.
         return null;
     }
 
+    private boolean canCoalesce() {
+        // requests with side effects or per request callbacks can not be shared
+        return coalesce && body == null && AsyncHttpGet.METHOD.equals(method)
+            && headersCallback == null && loadRequestCallback == null
+            && progress == null && progressHandler == null && progressBar == null && progressDialog == null;
+    }
+
+    // a copy of this request that is not tied to the context of any one of the coalesced requests
+    private IonRequestBuilder copyForCoalescing() {
+        IonRequestBuilder ret = new IonRequestBuilder(ContextReference.fromContext(ion.context), ion);
+        ret.method = method;
+        ret.methodWasSet = methodWasSet;
+        ret.uri = uri;
+        ret.headers = headers;
+        ret.noCache = noCache;
+        ret.query = query;
+        ret.timeoutMilliseconds = timeoutMilliseconds;
+        ret.followRedirect = followRedirect;
+        ret.logTag = logTag;
+        ret.logLevel = logLevel;
+        ret.proxyHost = proxyHost;
+        ret.proxyPort = proxyPort;
+        ret.priority = priority;
+        ret.parseInline = parseInline;
+        ret.handler = null;
+        return ret;
+    }
+
+    /**
+     * Execute the request, sharing the fetch and parse with identical coalesced requests
+     * that are in flight.
+     * @param parser
+     * @param resultKey Identifies the type of the parsed result
+     */
+    <T> ResponseFuture<T> executeCoalesced(AsyncParser<T> parser, String resultKey) {
+        if (!canCoalesce())
+            return execute(parser);
+        Uri uri = prepareURI();
+        if (uri == null)
+            return execute(parser);
+
+        // anything that changes how the request is made is part of the key, so only requests
+        // that would fetch the same response are shared
+        String key = method + " " + uri + "\n" + (headers == null ? "" : headers.toHeaderString())
+            + "noCache=" + noCache + " followRedirect=" + followRedirect + " timeout=" + timeoutMilliseconds
+            + " proxy=" + proxyHost + ":" + proxyPort + "\n" + resultKey;
+        while (true) {
+            CoalescedLoad<T> load;
+            boolean created = false;
+            synchronized (ion.coalescedLoads) {
+                load = ion.coalescedLoads.get(key);
+                if (load == null) {
+                    load = new CoalescedLoad<T>(ion, key);
+                    ion.coalescedLoads.put(key, load);
+                    created = true;
+                }
+            }
+            ResponseFuture<T> ret = load.join(this);
+            if (ret == null) {
+                // completed while joining, start another
+                ion.removeCoalescedLoad(load);
+                continue;
+            }
+            if (created)
+                load.start(copyForCoalescing().execute(parser));
+            return ret;
+        }
+    }
+
     @Override
     public ResponseFuture<JsonObject> asJsonObject() {
-        return execute(new GsonObjectParser());
+        return executeCoalesced(new GsonObjectParser(), "JsonObject");
     }
 
     @Override
     public ResponseFuture<JsonArray> asJsonArray() {
-        return execute(new GsonArrayParser());
+        return executeCoalesced(new GsonArrayParser(), "JsonArray");
     }
 
     @Override
     public ResponseFuture<String> asString() {
-        return execute(new StringParser());
+        return executeCoalesced(new TextParser(), "String");
     }
 
     @Override
     public ResponseFuture<byte[]> asByteArray() {
-        return execute(new AsyncParser<byte[]>() {
+        return executeCoalesced(new AsyncParser<byte[]>() {
             @Override
             public Future<byte[]> parse(DataEmitter emitter) {
                 return new ByteBufferListParser().parse(emitter)
@@ -672,7 +889,7 @@ class IonRequestBuilder implements Builders.Any.B, Builders.Any.F, Builders.Any.
             public void write(DataSink sink, byte[] value, CompletedCallback completed) {
                 new ByteBufferListParser().write(sink, new ByteBufferList(value), completed);
             }
-        });
+        }, "byte[]");
     }
 
     @Override
@@ -830,6 +1047,11 @@ class IonRequestBuilder implements Builders.Any.B, Builders.Any.F, Builders.Any.
         return new IonImageViewRequestBuilder(this).asCachedBitmap();
     }
 
+    @Override
+    public BitmapMetadata asCachedMetadata() {
+        return new IonImageViewRequestBuilder(this).asCachedMetadata();
+    }
+
     @Override
     public LocallyCachedStatus isLocallyCached() {
         return new IonImageViewRequestBuilder(this).isLocallyCached();
@@ -849,14 +1071,79 @@ class IonRequestBuilder implements Builders.Any.B, Builders.Any.F, Builders.Any.
         return this;
     }
 
+    // hands the elements parsed on a worker thread to the handler, staying at most one batch ahead
+    class ElementRelay<T> implements ElementCallback<T> {
+        ElementCallback<T> callback;
+        volatile EmitterTransform<Integer> future;
+        Semaphore delivering = new Semaphore(1);
+
+        ElementRelay(ElementCallback<T> callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void onElements(final List<T> elements) {
+            delivering.acquireUninterruptibly();
+            if (future != null && future.isDone()) {
+                delivering.release();
+                throw new CancellationException();
+            }
+            Runnable runner = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (future != null && future.isDone())
+                            return;
+                        String deadReason = contextReference.isAlive();
+                        if (deadReason != null) {
+                            if (future != null)
+                                future.cancelSilently();
+                            return;
+                        }
+                        callback.onElements(elements);
+                    }
+                    finally {
+                        delivering.release();
+                    }
+                }
+            };
+            if (handler == null)
+                ion.httpClient.getServer().post(runner);
+            else
+                AsyncServer.post(handler, runner);
+        }
+    }
+
+    private <T> ResponseFuture<Integer> executeArrayStream(Type type, int batchSize, ElementCallback<T> callback) {
+        ElementRelay<T> relay = new ElementRelay<T>(callback);
+        EmitterTransform<Integer> ret = execute(new GsonArrayStreamParser<T>(ion.configure().getGson(), type, batchSize, relay));
+        relay.future = ret;
+        return ret;
+    }
+
+    @Override
+    public <T> ResponseFuture<Integer> asJsonArrayStream(Class<T> clazz, ElementCallback<T> callback) {
+        return executeArrayStream(clazz, 100, callback);
+    }
+
+    @Override
+    public <T> ResponseFuture<Integer> asJsonArrayStream(Class<T> clazz, int batchSize, ElementCallback<T> callback) {
+        return executeArrayStream(clazz, batchSize, callback);
+    }
+
+    @Override
+    public <T> ResponseFuture<Integer> asJsonArrayStream(TypeToken<T> token, int batchSize, ElementCallback<T> callback) {
+        return executeArrayStream(token.getType(), batchSize, callback);
+    }
+
     @Override
     public <T> ResponseFuture<T> as(Class<T> clazz) {
-        return execute(new GsonSerializer<T>(ion.configure().getGson(), clazz));
+        return executeCoalesced(ion.<T>getGsonSerializer(clazz), "class:" + clazz.getName());
     }
 
     @Override
     public <T> ResponseFuture<T> as(TypeToken<T> token) {
-        return execute(new GsonSerializer<T>(ion.configure().getGson(), token));
+        return executeCoalesced(ion.<T>getGsonSerializer(token.getType()), "type:" + token.getType());
     }
 
     ArrayList<WeakReference<Object>> groups;
@@ -879,13 +1166,17 @@ class IonRequestBuilder implements Builders.Any.B, Builders.Any.F, Builders.Any.
 
     @Override
     public IonRequestBuilder setJsonPojoBody(Object object, TypeToken token) {
-        setBody(new PojoBody(ion.configure().getGson(), object, token));
+        PojoBody pojoBody = new PojoBody(ion.configure().getGson(), object, token);
+        pojoBody.setExecutor(ion.ioExecutor);
+        setBody(pojoBody);
         return this;
     }
 
     @Override
     public IonRequestBuilder setJsonPojoBody(Object object) {
-        setBody(new PojoBody(ion.configure().getGson(), object, null));
+        PojoBody pojoBody = new PojoBody(ion.configure().getGson(), object, null);
+        pojoBody.setExecutor(ion.ioExecutor);
+        setBody(pojoBody);
         return this;
     }
 
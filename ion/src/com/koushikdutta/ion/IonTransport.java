@@ -0,0 +1,109 @@
+package com.koushikdutta.ion;
+
+import android.content.Context;
+import android.os.Build;
+
+import com.koushikdutta.async.AsyncServer;
+import com.koushikdutta.async.http.AsyncHttpClient;
+import com.koushikdutta.async.http.ResponseCacheMiddleware;
+import com.koushikdutta.async.util.FileUtility;
+import com.koushikdutta.ion.conscrypt.ConscryptMiddleware;
+import com.koushikdutta.ion.cookie.CookieMiddleware;
+
+import org.apache.http.conn.ssl.BrowserCompatHostnameVerifier;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The network transport used by an Ion instance: the AsyncServer reactor,
+ * the AsyncHttpClient and its socket/SSL middleware (and their keep-alive pools),
+ * the http response cache and the cookie store.
+ * By default, every Ion instance creates its own transport. Multiple Ion instances
+ * can be built on the same transport to share a single reactor thread, connection
+ * pool and TLS sessions, while keeping their bitmap caches, stores and loaders separate.
+ */
+public class IonTransport {
+    static IonTransport shared;
+
+    /**
+     * Get the transport that is shared by all Ion instances created with
+     * Ion.getSharedTransportInstance.
+     * @param context
+     * @return
+     */
+    public static synchronized IonTransport getShared(Context context) {
+        if (shared == null)
+            shared = new IonTransport(context, "ion-shared");
+        return shared;
+    }
+
+    AsyncHttpClient httpClient;
+    ConscryptMiddleware conscryptMiddleware;
+    CookieMiddleware cookieMiddleware;
+    ResponseCacheMiddleware responseCache;
+    String name;
+
+    public IonTransport(Context context, String name) {
+        context = context.getApplicationContext();
+        this.name = name;
+
+        httpClient = new AsyncHttpClient(new AsyncServer("ion-" + name));
+        httpClient.getSSLSocketMiddleware().setHostnameVerifier(new BrowserCompatHostnameVerifier());
+        httpClient.insertMiddleware(conscryptMiddleware = new ConscryptMiddleware(context, httpClient.getSSLSocketMiddleware()));
+
+        File ionCacheDir = new File(context.getCacheDir(), name);
+        try {
+            responseCache = ResponseCacheMiddleware.addCache(httpClient, ionCacheDir, 10L * 1024L * 1024L);
+        }
+        catch (IOException e) {
+            IonLog.w("unable to set up response cache, clearing", e);
+            FileUtility.deleteDirectory(ionCacheDir);
+            try {
+                responseCache = ResponseCacheMiddleware.addCache(httpClient, ionCacheDir, 10L * 1024L * 1024L);
+            }
+            catch (IOException ex) {
+                IonLog.w("unable to set up response cache, failing", e);
+            }
+        }
+
+        // TODO: Support pre GB?
+        if (Build.VERSION.SDK_INT >= 9)
+            httpClient.insertMiddleware(cookieMiddleware = new CookieMiddleware(context, name));
+
+        httpClient.getSocketMiddleware().setConnectAllAddresses(true);
+        httpClient.getSSLSocketMiddleware().setConnectAllAddresses(true);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the AsyncHttpClient object in use by this transport
+     * @return
+     */
+    public AsyncHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * Get the AsyncServer reactor in use by this transport
+     * @return
+     */
+    public AsyncServer getServer() {
+        return httpClient.getServer();
+    }
+
+    public ResponseCacheMiddleware getResponseCache() {
+        return responseCache;
+    }
+
+    public CookieMiddleware getCookieMiddleware() {
+        return cookieMiddleware;
+    }
+
+    public ConscryptMiddleware getConscryptMiddleware() {
+        return conscryptMiddleware;
+    }
+}
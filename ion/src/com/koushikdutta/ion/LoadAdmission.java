@@ -0,0 +1,96 @@
+package com.koushikdutta.ion;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of bitmap loads that run at once for ImageViews, to a limit
+ * that adapts to the network (see LoadLimit).
+ * Active loads are counted as they start and finish, rather than by scanning the pending bitmaps.
+ * Loads over the limit are deferred, and started as the active loads finish,
+ * highest priority first, and in the order they were requested within a priority. Deferred loads that can not start because loads are paused
+ * are parked until the next resume.
+ * Deferred loads are not removed from the queue when they are cancelled. They are dropped
+ * when they reach the front of the queue.
+ */
+class LoadAdmission {
+    // loads finish on background threads when nothing is waiting for them anymore
+    private final AtomicInteger active = new AtomicInteger();
+    private final LoadLimit limit = new LoadLimit();
+    private static final Comparator<DeferredLoadBitmap> ORDER = new Comparator<DeferredLoadBitmap>() {
+        @Override
+        public int compare(DeferredLoadBitmap lhs, DeferredLoadBitmap rhs) {
+            if (lhs.priority != rhs.priority)
+                return lhs.priority > rhs.priority ? -1 : 1;
+            if (lhs.sequence != rhs.sequence)
+                return lhs.sequence < rhs.sequence ? -1 : 1;
+            return 0;
+        }
+    };
+    // only accessed from the UI thread
+    private long sequence;
+    private PriorityQueue<DeferredLoadBitmap> deferred = new PriorityQueue<DeferredLoadBitmap>(11, ORDER);
+    private ArrayList<DeferredLoadBitmap> parked = new ArrayList<DeferredLoadBitmap>();
+
+    /**
+     * @return The adaptive limit on the number of active loads.
+     */
+    public LoadLimit getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return The number of loads that have started and not yet finished.
+     */
+    public int getActive() {
+        return active.get();
+    }
+
+    /**
+     * @return The number of deferred and parked loads, including those that have been cancelled
+     * but not yet dropped.
+     */
+    public int getDeferred() {
+        return deferred.size() + parked.size();
+    }
+
+    void onStarted() {
+        active.incrementAndGet();
+    }
+
+    void onFinished() {
+        active.decrementAndGet();
+    }
+
+    boolean shouldDefer() {
+        return active.get() >= limit.getLimit();
+    }
+
+    boolean hasCapacity() {
+        return active.get() < limit.getLimit();
+    }
+
+    void defer(DeferredLoadBitmap load) {
+        load.sequence = sequence++;
+        deferred.add(load);
+    }
+
+    DeferredLoadBitmap poll() {
+        return deferred.poll();
+    }
+
+    void park(DeferredLoadBitmap load) {
+        parked.add(load);
+    }
+
+    /**
+     * Return the parked loads to the queue. They keep their place, since they
+     * keep the sequence they were deferred with.
+     */
+    void unpark() {
+        deferred.addAll(parked);
+        parked.clear();
+    }
+}
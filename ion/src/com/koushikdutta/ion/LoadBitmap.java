@@ -4,20 +4,24 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Point;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 
 import com.koushikdutta.async.ByteBufferList;
 import com.koushikdutta.async.future.FutureCallback;
 import com.koushikdutta.ion.bitmap.BitmapInfo;
+import com.koushikdutta.ion.bitmap.BitmapMetadata;
 import com.koushikdutta.ion.bitmap.IonBitmapCache;
 import com.koushikdutta.ion.gif.GifAction;
 import com.koushikdutta.ion.gif.GifDecoder;
 
+import java.io.IOException;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
 
 class LoadBitmap extends LoadBitmapEmitter implements FutureCallback<ByteBufferList> {
     int resizeWidth;
@@ -31,23 +35,52 @@ class LoadBitmap extends LoadBitmapEmitter implements FutureCallback<ByteBufferL
         this.emitterTransform = emitterTransform;
     }
 
+    // only timeouts and connection errors of network downloads tell anything about the link.
+    // cancellations, missing files and failures of cached loads do not.
+    private boolean isNetworkFailure(Exception e) {
+        if (!(e instanceof TimeoutException) && !(e instanceof IOException))
+            return false;
+        if (emitterTransform == null)
+            return false;
+        if (emitterTransform.loadedFrom() == Loader.LoaderEmitter.LOADED_FROM_NETWORK)
+            return true;
+        // failed before the response started, such as while connecting
+        if (emitterTransform.emitter != null || emitterTransform.initialRequest == null)
+            return false;
+        URI uri = emitterTransform.initialRequest.getUri();
+        if (uri == null)
+            return false;
+        String scheme = uri.getScheme();
+        return "http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme);
+    }
+
     @Override
     public void onCompleted(Exception e, final ByteBufferList result) {
         if (e != null) {
+            if (isNetworkFailure(e))
+                ion.loadAdmission.getLimit().onDropped();
             report(e, null);
             return;
         }
 
+        // only network downloads tell anything about the link
+        if (emitterTransform != null && emitterTransform.loadedFrom() == Loader.LoaderEmitter.LOADED_FROM_NETWORK) {
+            ion.loadAdmission.getLimit().onSample(emitterTransform.startTime, emitterTransform.headersTime,
+                SystemClock.elapsedRealtime(), emitterTransform.bytesRead, ion.loadAdmission.getActive());
+        }
+
         if (ion.bitmapsPending.tag(key) != this) {
             result.recycle();
+            finish();
             return;
         }
 
-        Ion.getBitmapLoadExecutorService().execute(new Runnable() {
+        ion.bitmapExecutor.execute(new PriorityRunnable(emitterTransform.priority) {
             @Override
             public void run() {
                 if (ion.bitmapsPending.tag(key) != LoadBitmap.this) {
                     result.recycle();
+                    finish();
                     return;
                 }
 
@@ -57,8 +90,9 @@ class LoadBitmap extends LoadBitmapEmitter implements FutureCallback<ByteBufferL
 
                     Bitmap[] bitmaps;
                     int[] delays;
-                    BitmapFactory.Options options = ion.bitmapCache.prepareBitmapOptions(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining(), resizeWidth, resizeHeight);
-                    final Point size = new Point(options.outWidth, options.outHeight);
+                    BitmapMetadata metadata = ion.bitmapCache.probeMetadata(key, bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+                    BitmapFactory.Options options = ion.bitmapCache.prepareBitmapOptions(metadata, resizeWidth, resizeHeight);
+                    final Point size = metadata.getOriginalSize();
                     if (animateGif && TextUtils.equals("image/gif", options.outMimeType)) {
                         GifDecoder decoder = new GifDecoder(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining(), new GifAction() {
                             @Override
@@ -79,7 +113,7 @@ class LoadBitmap extends LoadBitmapEmitter implements FutureCallback<ByteBufferL
                         }
                     }
                     else {
-                        Bitmap bitmap = IonBitmapCache.loadBitmap(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining(), options);
+                        Bitmap bitmap = IonBitmapCache.loadBitmap(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining(), options, metadata.orientation);
                         if (bitmap == null)
                             throw new Exception("failed to load bitmap");
                         bitmaps = new Bitmap[] { bitmap };
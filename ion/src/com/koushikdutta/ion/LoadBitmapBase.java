@@ -1,10 +1,32 @@
 package com.koushikdutta.ion;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * Created by koush on 1/18/14.
  */
 public class LoadBitmapBase extends BitmapCallback {
+    private final AtomicBoolean active = new AtomicBoolean(true);
+
     public LoadBitmapBase(Ion ion, String key, boolean put)  {
         super(ion, key, put);
+        ion.loadAdmission.onStarted();
+    }
+
+    /**
+     * Stop counting this load against the ImageView load limit. Loads finish when they
+     * are reported, or when they are abandoned because nothing is waiting for them anymore.
+     */
+    void finish() {
+        if (!active.compareAndSet(true, false))
+            return;
+        ion.loadAdmission.onFinished();
+        ion.processDeferred();
+    }
+
+    @Override
+    protected void onReported() {
+        finish();
+        super.onReported();
     }
 }
@@ -1,27 +1,46 @@
 package com.koushikdutta.ion;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapRegionDecoder;
 import android.graphics.Point;
 import android.graphics.Rect;
 
 import com.koushikdutta.ion.bitmap.BitmapInfo;
-import com.koushikdutta.ion.bitmap.IonBitmapCache;
+import com.koushikdutta.ion.bitmap.RegionDecoderPool;
+
+import java.util.concurrent.CancellationException;
 
 /**
  * Created by koush on 1/29/14.
  */
 public class LoadBitmapRegion extends BitmapCallback {
-    public LoadBitmapRegion(final Ion ion, final String key, final BitmapRegionDecoder decoder, final Rect region, final int inSampleSize) {
+    volatile boolean cancelled;
+
+    public LoadBitmapRegion(final Ion ion, final String key, final LoadMipmap mipmap, final RegionDecoderPool decoders, final Rect region, final int inSampleSize, int priority) {
         super(ion, key, true);
 
-        Ion.getBitmapLoadExecutorService().execute(new Runnable() {
+        ion.bitmapExecutor.execute(new PriorityRunnable(priority) {
             @Override
             public void run() {
+                // the tile scrolled out of view before the decode started
+                if (cancelled) {
+                    report(new CancellationException(), null);
+                    return;
+                }
                 try {
-                    Bitmap bitmap = IonBitmapCache.loadRegion(decoder, region, inSampleSize);
+                    Bitmap bitmap = null;
+                    // prefer the pre-scaled tile from the pyramid
+                    if (mipmap != null)
+                        bitmap = mipmap.loadTile(key, region.width() / inSampleSize, region.height() / inSampleSize);
+                    if (bitmap == null)
+                        bitmap = ion.getBitmapCache().loadRegion(decoders, region, inSampleSize);
                     if (bitmap == null)
                         throw new Exception("failed to load bitmap region");
+                    // cancelled during the decode, so the bitmap was never handed out
+                    if (cancelled) {
+                        ion.getBitmapCache().recycleTile(bitmap);
+                        report(new CancellationException(), null);
+                        return;
+                    }
                     BitmapInfo info = new BitmapInfo(key, null, new Bitmap[] { bitmap }, new Point(bitmap.getWidth(), bitmap.getHeight()));
                     report(null, info);
                 }
@@ -31,4 +50,11 @@ public class LoadBitmapRegion extends BitmapCallback {
             }
         });
     }
+
+    /**
+     * Skip the decode if it has not started yet.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
 }
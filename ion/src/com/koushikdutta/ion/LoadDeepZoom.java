@@ -10,9 +10,13 @@ import android.os.Build;
 import android.text.TextUtils;
 
 import com.koushikdutta.async.future.FutureCallback;
+import com.koushikdutta.async.http.libcore.RawHeaders;
 import com.koushikdutta.async.util.FileCache;
 import com.koushikdutta.async.util.StreamUtility;
 import com.koushikdutta.ion.bitmap.BitmapInfo;
+import com.koushikdutta.ion.bitmap.BitmapMetadata;
+import com.koushikdutta.ion.bitmap.IonBitmapCache;
+import com.koushikdutta.ion.bitmap.RegionDecoderPool;
 import com.koushikdutta.ion.gif.GifAction;
 import com.koushikdutta.ion.gif.GifDecoder;
 
@@ -30,6 +34,23 @@ public class LoadDeepZoom extends LoadBitmapEmitter implements FutureCallback<Fi
         this.fileCache = fileCache;
     }
 
+    /**
+     * A downloaded file is committed to the cache again on every open, so it is versioned by
+     * the validator of its response and its length, rather than by its modification time.
+     */
+    String getSourceVersion(File file) {
+        if (fileCache == null || emitterTransform == null)
+            return IonBitmapCache.getFileVersion(file);
+        RawHeaders headers = emitterTransform.headers;
+        String validator = null;
+        if (headers != null) {
+            validator = headers.get("ETag");
+            if (validator == null)
+                validator = headers.get("Last-Modified");
+        }
+        return (validator == null ? "" : validator) + ":" + file.length();
+    }
+
     @Override
     public void onCompleted(Exception e, final File tempFile) {
         if (e != null) {
@@ -39,10 +60,12 @@ public class LoadDeepZoom extends LoadBitmapEmitter implements FutureCallback<Fi
 
         if (ion.bitmapsPending.tag(key) != this) {
 //            Log.d("IonBitmapLoader", "Bitmap load cancelled (no longer needed)");
+            finish();
             return;
         }
 
-        Ion.getBitmapLoadExecutorService().execute(new Runnable() {
+        int priority = emitterTransform == null ? PriorityRunnable.DEFAULT_PRIORITY : emitterTransform.priority;
+        ion.bitmapExecutor.execute(new PriorityRunnable(priority) {
             @Override
             public void run() {
                 FileInputStream fin = null;
@@ -57,8 +80,10 @@ public class LoadDeepZoom extends LoadBitmapEmitter implements FutureCallback<Fi
                         // local file system, use the "temp" file as the source.
                         file = tempFile;
                     }
-                    BitmapFactory.Options options = ion.getBitmapCache().prepareBitmapOptions(file, 0, 0);
-                    final Point size = new Point(options.outWidth, options.outHeight);
+                    String version = getSourceVersion(file);
+                    BitmapMetadata metadata = ion.getBitmapCache().getMetadata(key, file, version);
+                    BitmapFactory.Options options = ion.getBitmapCache().prepareBitmapOptions(metadata, 0, 0);
+                    final Point size = metadata.getOriginalSize();
                     if (animateGif && TextUtils.equals("image/gif", options.outMimeType)) {
                         fin = fileCache.get(key);
                         GifDecoder decoder = new GifDecoder(fin, new GifAction() {
@@ -88,17 +113,34 @@ public class LoadDeepZoom extends LoadBitmapEmitter implements FutureCallback<Fi
                         return;
                     }
 
-                    BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(file.toString(), false);
-                    Bitmap bitmap = decoder.decodeRegion(new Rect(0, 0, size.x, size.y), options);
-                    if (bitmap == null)
-                        throw new Exception("unable to load decoder");
+                    // if the tile pyramid was generated previously, the base bitmap and tiles
+                    // are decoded from it, and a region decoder is only opened if a file is missing.
+                    LoadMipmap mipmap = new LoadMipmap(ion, key, ion.getMipmapCache(), file, version, size);
+                    Bitmap bitmap = mipmap.loadBase();
+                    BitmapRegionDecoder decoder = null;
+                    RegionDecoderPool decoderPool;
+                    if (bitmap != null) {
+                        decoderPool = new RegionDecoderPool(file);
+                    }
+                    else {
+                        decoder = BitmapRegionDecoder.newInstance(file.toString(), false);
+                        bitmap = decoder.decodeRegion(new Rect(0, 0, size.x, size.y), options);
+                        if (bitmap == null)
+                            throw new Exception("unable to load decoder");
+                        decoderPool = new RegionDecoderPool(decoder, file);
+                    }
                     Bitmap[] bitmaps = new Bitmap[] { bitmap };
 
                     BitmapInfo info = new BitmapInfo(key, options.outMimeType, bitmaps, size);
                     info.decoder = decoder;
+                    info.decoderPool = decoderPool;
                     info.decoderFile = file;
+                    info.mipmap = mipmap;
                     info.loadedFrom = Loader.LoaderEmitter.LOADED_FROM_NETWORK;
                     report(null, info);
+
+                    // build or finish the pyramid for the next time this image is opened
+                    mipmap.generate(decoderPool, bitmap);
                 } catch (Exception e) {
                     report(e, null);
                 }
@@ -0,0 +1,146 @@
+package com.koushikdutta.ion;
+
+import android.os.SystemClock;
+
+/**
+ * Adapts the number of bitmap downloads that run at once to the network.
+ * The limit is adjusted once per round, where a round is as many completed downloads as the limit.
+ * If the limit was in use during a round, it is increased by one, and the increase is only
+ * kept if the throughput of the next round improves. If a download fails, or waits noticeably
+ * longer than the fastest recent download for its first byte, the link is considered
+ * oversubscribed and the limit is cut multiplicatively.
+ * This is accessed from the UI thread and the threads that complete downloads.
+ */
+class LoadLimit {
+    static final int DEFAULT_MIN = 2;
+    static final int DEFAULT_MAX = 16;
+    static final int DEFAULT_INITIAL = 5;
+
+    // the first byte may take this many times longer than the fastest recent first byte
+    private static final double LATENCY_TOLERANCE = 2;
+    // plus this much, so jitter on fast links is not mistaken for congestion
+    private static final long LATENCY_SLACK = 20;
+    private static final double BACKOFF = 0.75;
+    // an increase needs to improve the throughput by this much to be kept
+    private static final double MIN_GAIN = 1.05;
+    // the fastest first byte is forgotten after this many samples, in case the route changed
+    private static final int LATENCY_WINDOW = 100;
+
+    private int minLimit = DEFAULT_MIN;
+    private int maxLimit = DEFAULT_MAX;
+    private int limit = DEFAULT_INITIAL;
+
+    private long minLatency = Long.MAX_VALUE;
+    private long windowMinLatency = Long.MAX_VALUE;
+    private int windowSamples;
+
+    private int roundSamples;
+    private long roundBytes;
+    private long roundStart;
+    private boolean roundCongested;
+    private boolean roundSaturated;
+    private boolean probing;
+    private double lastThroughput;
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public synchronized int getMinLimit() {
+        return minLimit;
+    }
+
+    public synchronized int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * @return The throughput of the last round, in bytes per second.
+     */
+    public synchronized double getThroughput() {
+        return lastThroughput;
+    }
+
+    public synchronized void setBounds(int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        limit = Math.max(this.minLimit, Math.min(this.maxLimit, limit));
+    }
+
+    /**
+     * Record a completed network download.
+     * @param start When the request was sent, in elapsed milliseconds
+     * @param firstByte When the response headers arrived
+     * @param end When the body finished
+     * @param bytes The size of the body
+     * @param inFlight The number of loads running when this one completed
+     */
+    public synchronized void onSample(long start, long firstByte, long end, long bytes, int inFlight) {
+        long latency = firstByte - start;
+        if (latency < 0)
+            return;
+        if (roundSamples == 0)
+            roundStart = start;
+
+        windowMinLatency = Math.min(windowMinLatency, latency);
+        if (++windowSamples >= LATENCY_WINDOW) {
+            minLatency = windowMinLatency;
+            windowMinLatency = Long.MAX_VALUE;
+            windowSamples = 0;
+        }
+        else {
+            minLatency = Math.min(minLatency, latency);
+        }
+
+        if (latency > minLatency * LATENCY_TOLERANCE + LATENCY_SLACK)
+            roundCongested = true;
+        if (inFlight >= limit)
+            roundSaturated = true;
+        roundBytes += bytes;
+        roundSamples++;
+        if (roundSamples >= limit)
+            endRound(end);
+    }
+
+    /**
+     * Record a download that failed.
+     */
+    public synchronized void onDropped() {
+        long now = SystemClock.elapsedRealtime();
+        if (roundSamples == 0)
+            roundStart = now;
+        roundCongested = true;
+        roundSamples++;
+        if (roundSamples >= limit)
+            endRound(now);
+    }
+
+    private void endRound(long end) {
+        double throughput = 0;
+        if (end > roundStart)
+            throughput = roundBytes * 1000d / (end - roundStart);
+
+        if (roundCongested) {
+            limit = Math.max(minLimit, (int)(limit * BACKOFF));
+            probing = false;
+        }
+        else if (probing && throughput < lastThroughput * MIN_GAIN) {
+            // the extra download did not help
+            limit = Math.max(minLimit, limit - 1);
+            probing = false;
+        }
+        else if (roundSaturated && limit < maxLimit) {
+            limit++;
+            probing = true;
+        }
+        else {
+            probing = false;
+        }
+
+        lastThroughput = throughput;
+        roundSamples = 0;
+        roundBytes = 0;
+        roundCongested = false;
+        roundSaturated = false;
+    }
+}
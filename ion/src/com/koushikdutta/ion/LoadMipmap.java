@@ -1,51 +1,344 @@
 package com.koushikdutta.ion;
 
 import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.BitmapRegionDecoder;
 import android.graphics.Point;
+import android.graphics.Rect;
 import android.os.Build;
 
-import com.koushikdutta.async.future.FutureCallback;
-import com.koushikdutta.ion.bitmap.BitmapInfo;
+import com.koushikdutta.async.util.FileCache;
+import com.koushikdutta.async.util.StreamUtility;
+import com.koushikdutta.ion.bitmap.RegionDecoderPool;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashSet;
 
 /**
- * Created by koush on 1/5/14.
+ * The tile pyramid of a deep zoom image.
+ * After a deep zoom image is first opened, the base bitmap and the tiles of every
+ * scaled down zoom level are generated in the background, and stored in the mipmap FileCache
+ * under the image key. Later opens decode the base bitmap and tiles from these small pre-scaled
+ * files, rather than opening a region decoder and decoding regions of the full resolution source.
+ * Full resolution tiles are not stored, since they would duplicate the source.
  */
 @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
-public class LoadMipmap extends BitmapCallback implements FutureCallback<File> {
-    public LoadMipmap(Ion ion, String key) {
-        super(ion, key, true);
+public class LoadMipmap extends PriorityRunnable {
+    static final int TILE_DIM = 256;
+    private static final int QUALITY = 90;
+    /**
+     * The size of the FileCache that holds the pyramids, which is separate from the response
+     * cache so pyramids do not evict responses.
+     */
+    static final long MAX_CACHE_SIZE = 32L * 1024L * 1024L;
+
+    // keys of the pyramids currently being generated
+    private static final HashSet<String> generating = new HashSet<String>();
+
+    Ion ion;
+    String key;
+    FileCache fileCache;
+    File source;
+    String sourceVersion;
+    Point size;
+    RegionDecoderPool decoders;
+    Bitmap base;
+    Manifest manifest;
+    boolean valid;
+    // the next level to generate
+    int level;
+    // whether the tiles of a stale pyramid are being replaced
+    boolean overwrite;
+
+    static class Manifest {
+        int width;
+        int height;
+        boolean complete;
+        String sourceVersion;
+
+        String serialize() {
+            return width + "\n" + height + "\n" + complete + "\n" + sourceVersion;
+        }
+
+        static Manifest deserialize(String value) {
+            String[] lines = value.split("\n", -1);
+            if (lines.length < 4)
+                return null;
+            try {
+                Manifest ret = new Manifest();
+                ret.width = Integer.parseInt(lines[0]);
+                ret.height = Integer.parseInt(lines[1]);
+                ret.complete = Boolean.parseBoolean(lines[2]);
+                ret.sourceVersion = lines[3];
+                return ret;
+            }
+            catch (NumberFormatException e) {
+                return null;
+            }
+        }
     }
 
-    @Override
-    public void onCompleted(Exception e, final File file) {
-        if (e != null) {
-            report(e, null);
-            return;
+    /**
+     * Open the pyramid of the given image. This reads the manifest, so it should
+     * not be called on the UI thread.
+     * @param ion
+     * @param key The download key of the image
+     * @param fileCache The cache that holds the pyramids
+     * @param source The full resolution source file
+     * @param sourceVersion Identifies the content of the source, such as its ETag and length.
+     *                      The source file itself may be rewritten on every open, so its
+     *                      modification time can not be used.
+     * @param size The size of the source image
+     */
+    public LoadMipmap(Ion ion, String key, FileCache fileCache, File source, String sourceVersion, Point size) {
+        // nothing waits for the pyramid
+        super(BACKGROUND_PRIORITY);
+        this.ion = ion;
+        this.key = key;
+        this.fileCache = fileCache;
+        this.source = source;
+        // stored as a single line of the manifest
+        this.sourceVersion = sourceVersion.replace('\n', ' ');
+        this.size = size;
+
+        manifest = readManifest();
+        // the pyramid is only used if it was generated from this exact source
+        valid = manifest != null
+            && manifest.width == size.x && manifest.height == size.y
+            && this.sourceVersion.equals(manifest.sourceVersion);
+    }
+
+    public static int getMaxLevel(Point size) {
+        // find the level: find how many power of 2 tiles are necessary
+        // to fit the entire image. ie, fit it into a square.
+        double level = Math.max((double)size.x / TILE_DIM, (double)size.y / TILE_DIM);
+        level = Math.log(level) / Math.log(2);
+        return Math.max(0, (int)Math.ceil(level));
+    }
+
+    public static String getTileKey(String key, int level, int x, int y) {
+        return FileCache.toKeyString(key, ",", level, ",", x, ",", y);
+    }
+
+    static String getBaseKey(String key) {
+        return FileCache.toKeyString(key, ",mipmap,base");
+    }
+
+    static String getManifestKey(String key) {
+        return FileCache.toKeyString(key, ",mipmap");
+    }
+
+    /**
+     * @return true if the pyramid was generated from the current source, and its
+     * files may be used.
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    public boolean isComplete() {
+        return valid && manifest.complete;
+    }
+
+    /**
+     * Decode the base bitmap from the pyramid.
+     * @return The base bitmap, or null if the pyramid does not have it.
+     */
+    public Bitmap loadBase() {
+        if (!valid)
+            return null;
+        String baseKey = getBaseKey(key);
+        if (!fileCache.exists(baseKey))
+            return null;
+        return BitmapFactory.decodeFile(fileCache.getFile(baseKey).toString());
+    }
+
+    /**
+     * Decode a tile from the pyramid.
+     * @param tileKey
+     * @param width The expected width of the tile
+     * @param height The expected height of the tile
+     * @return The tile, or null if the pyramid does not have it.
+     */
+    public Bitmap loadTile(String tileKey, int width, int height) {
+        if (!valid || !fileCache.exists(tileKey))
+            return null;
+        try {
+            return ion.getBitmapCache().loadTile(fileCache.getFile(tileKey), width, height);
         }
+        catch (Exception e) {
+            return null;
+        }
+    }
 
-        if (ion.bitmapsPending.tag(key) != this) {
-//            Log.d("IonBitmapLoader", "Bitmap load cancelled (no longer needed)");
+    /**
+     * Generate the rest of the pyramid on the bitmap executor, one level at a time,
+     * so the decodes of visible tiles are not held up behind the whole pyramid.
+     * Images whose pyramid would take up much of the cache are not given one.
+     * @param decoders The decoders of the source image
+     * @param base The base bitmap that was decoded from the source, which is stored in
+     *             the pyramid if it is missing.
+     */
+    public void generate(RegionDecoderPool decoders, Bitmap base) {
+        if (isComplete())
             return;
+        // each level is a quarter of the size of the one below it, so the scaled down levels
+        // take up about a third of the size of the source.
+        if (source.length() / 3 > MAX_CACHE_SIZE / 4)
+            return;
+        synchronized (generating) {
+            if (!generating.add(key))
+                return;
+        }
+        this.decoders = decoders;
+        this.base = base;
+        ion.bitmapExecutor.execute(this);
+    }
+
+    @Override
+    public void run() {
+        boolean done = true;
+        try {
+            // tiles of a stale pyramid are overwritten rather than reused
+            if (!valid && !overwrite) {
+                overwrite = true;
+                if (manifest != null)
+                    removeTiles(manifest);
+                manifest = new Manifest();
+                manifest.width = size.x;
+                manifest.height = size.y;
+                manifest.sourceVersion = sourceVersion;
+                writeManifest();
+            }
+
+            if (base != null) {
+                String baseKey = getBaseKey(key);
+                if (overwrite || !fileCache.exists(baseKey))
+                    write(baseKey, base);
+                base = null;
+            }
+
+            // the last level is full resolution, which is decoded from the source
+            int maxLevel = getMaxLevel(size);
+            if (level < maxLevel) {
+                generateLevel(level, maxLevel);
+                level++;
+            }
+
+            if (level < maxLevel) {
+                done = false;
+                ion.bitmapExecutor.execute(this);
+                return;
+            }
+
+            manifest.complete = true;
+            writeManifest();
+        }
+        catch (Exception e) {
+            // try again the next time the image is opened
+        }
+        catch (OutOfMemoryError e) {
         }
+        finally {
+            if (done) {
+                synchronized (generating) {
+                    generating.remove(key);
+                }
+            }
+        }
+    }
+
+    private void generateLevel(int level, int maxLevel) throws Exception {
+        int textureDim = TILE_DIM << maxLevel;
+        int textureTileDim = textureDim >> level;
+        // same sample size as the drawable uses for region decodes
+        int sampleSize = 1;
+        while (textureTileDim / sampleSize > TILE_DIM)
+            sampleSize <<= 1;
+
+        Rect region = new Rect();
+        for (int y = 0; y * textureTileDim < size.y; y++) {
+            for (int x = 0; x * textureTileDim < size.x; x++) {
+                String tileKey = getTileKey(key, level, x, y);
+                if (!overwrite && fileCache.exists(tileKey))
+                    continue;
+                region.set(x * textureTileDim, y * textureTileDim,
+                    Math.min(size.x, (x + 1) * textureTileDim), Math.min(size.y, (y + 1) * textureTileDim));
+                Bitmap tile = decodeRegion(region, sampleSize);
+                if (tile == null)
+                    throw new Exception("failed to decode tile");
+                write(tileKey, tile);
+                tile.recycle();
+            }
+        }
+    }
 
-//        Ion.getBitmapLoadExecutorService().execute(new Runnable() {
-//            @Override
-//            public void run() {
-//                try {
-//                    BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(file.toString(), false);
-//                    Point size = new Point(decoder.getWidth(), decoder.getHeight());
-//                    BitmapInfo info = new BitmapInfo(null, size);
-//                    info.mipmap = decoder;
-//                    info.loadedFrom = Loader.LoaderEmitter.LOADED_FROM_NETWORK;
-//                    info.key = key;
-//                    report(null, info);
-//                } catch (Exception e) {
-//                    report(e, null);
-//                }
-//            }
-//        });
+    private Bitmap decodeRegion(Rect region, int sampleSize) throws Exception {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        // hold a decoder only for the duration of a single tile,
+        // so the decodes of visible tiles are not starved.
+        BitmapRegionDecoder decoder = decoders.acquire();
+        try {
+            return decoder.decodeRegion(region, options);
+        }
+        finally {
+            decoders.release(decoder);
+        }
+    }
+
+    private void removeTiles(Manifest old) {
+        fileCache.remove(getBaseKey(key));
+        Point oldSize = new Point(old.width, old.height);
+        int maxLevel = getMaxLevel(oldSize);
+        int textureDim = TILE_DIM << maxLevel;
+        for (int level = 0; level < maxLevel; level++) {
+            int textureTileDim = textureDim >> level;
+            for (int y = 0; y * textureTileDim < old.height; y++) {
+                for (int x = 0; x * textureTileDim < old.width; x++) {
+                    fileCache.remove(getTileKey(key, level, x, y));
+                }
+            }
+        }
+    }
+
+    private void write(String fileKey, Bitmap bitmap) throws Exception {
+        File tempFile = fileCache.getTempFile();
+        FileOutputStream fout = new FileOutputStream(tempFile);
+        try {
+            Bitmap.CompressFormat format = bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+            bitmap.compress(format, QUALITY, fout);
+            fout.close();
+            fileCache.commitTempFiles(fileKey, tempFile);
+        }
+        finally {
+            StreamUtility.closeQuietly(fout);
+            tempFile.delete();
+        }
+    }
+
+    private Manifest readManifest() {
+        String manifestKey = getManifestKey(key);
+        try {
+            if (!fileCache.exists(manifestKey))
+                return null;
+            return Manifest.deserialize(StreamUtility.readFile(fileCache.getFile(manifestKey)));
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+
+    private void writeManifest() throws Exception {
+        File tempFile = fileCache.getTempFile();
+        try {
+            StreamUtility.writeFile(tempFile, manifest.serialize());
+            fileCache.commitTempFiles(getManifestKey(key), tempFile);
+        }
+        finally {
+            tempFile.delete();
+        }
     }
 }
@@ -0,0 +1,110 @@
+package com.koushikdutta.ion;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.Comparator;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed size thread pool that runs the queued tasks with the highest priority first.
+ * Tasks that are not a PriorityRunnable run at the default priority.
+ * Only tasks passed to execute are prioritized. Tasks passed to submit run at the default priority.
+ * The pool keeps track of how long its threads have been busy, so it can be monitored
+ * along with the depth of its queue.
+ */
+public class PriorityExecutor extends ThreadPoolExecutor {
+    private static final Comparator<Runnable> ORDER = new Comparator<Runnable>() {
+        @Override
+        public int compare(Runnable lhs, Runnable rhs) {
+            PriorityRunnable l = (PriorityRunnable)lhs;
+            PriorityRunnable r = (PriorityRunnable)rhs;
+            if (l.priority != r.priority)
+                return l.priority > r.priority ? -1 : 1;
+            if (l.sequence != r.sequence)
+                return l.sequence < r.sequence ? -1 : 1;
+            return 0;
+        }
+    };
+
+    static class NamedThreadFactory implements ThreadFactory {
+        final String name;
+        final int threadPriority;
+        final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String name, int threadPriority) {
+            this.name = name;
+            this.threadPriority = threadPriority;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread ret = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(threadPriority);
+                    runnable.run();
+                }
+            }, name + "-" + count.incrementAndGet());
+            ret.setDaemon(true);
+            return ret;
+        }
+    }
+
+    private final AtomicLong busyTime = new AtomicLong();
+    private final ThreadLocal<Long> started = new ThreadLocal<Long>();
+
+    public PriorityExecutor(int threads) {
+        this(threads, "ion", Process.THREAD_PRIORITY_BACKGROUND);
+    }
+
+    /**
+     * @param threads The number of threads in the pool
+     * @param name The name of the threads, which are numbered as they are created
+     * @param threadPriority The Linux thread priority of the threads, as used by
+     * {@link android.os.Process#setThreadPriority(int)}
+     */
+    public PriorityExecutor(int threads, String name, int threadPriority) {
+        super(threads, threads, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(11, ORDER),
+            new NamedThreadFactory(name, threadPriority));
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        super.execute(PriorityRunnable.wrap(command));
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        started.set(SystemClock.elapsedRealtime());
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        Long start = started.get();
+        if (start != null)
+            busyTime.addAndGet(SystemClock.elapsedRealtime() - start);
+        super.afterExecute(r, t);
+    }
+
+    /**
+     * @return The number of tasks waiting for a thread.
+     */
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    /**
+     * @return The total time, in milliseconds, the threads of this pool have spent running
+     * tasks. Tasks that are still running are not included.
+     */
+    public long getBusyTime() {
+        return busyTime.get();
+    }
+}
@@ -0,0 +1,39 @@
+package com.koushikdutta.ion;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A task with a priority, for the executors used by Ion. Tasks with a higher priority
+ * run first, and tasks with the same priority run in the order they were created.
+ */
+public abstract class PriorityRunnable implements Runnable {
+    public static final int DEFAULT_PRIORITY = 0;
+    /**
+     * Work that nobody is waiting on, such as prefetches and cache maintenance.
+     */
+    public static final int BACKGROUND_PRIORITY = -10;
+
+    private static final AtomicLong sequencer = new AtomicLong();
+
+    final int priority;
+    final long sequence = sequencer.getAndIncrement();
+
+    public PriorityRunnable(int priority) {
+        this.priority = priority;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    static PriorityRunnable wrap(final Runnable runnable) {
+        if (runnable instanceof PriorityRunnable)
+            return (PriorityRunnable)runnable;
+        return new PriorityRunnable(DEFAULT_PRIORITY) {
+            @Override
+            public void run() {
+                runnable.run();
+            }
+        };
+    }
+}
@@ -0,0 +1,176 @@
+package com.koushikdutta.ion;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Point;
+
+import com.koushikdutta.async.AsyncServer;
+import com.koushikdutta.async.ByteBufferList;
+import com.koushikdutta.async.DataEmitter;
+import com.koushikdutta.async.DataSink;
+import com.koushikdutta.async.callback.CompletedCallback;
+import com.koushikdutta.async.callback.DataCallback;
+import com.koushikdutta.async.future.Future;
+import com.koushikdutta.async.future.FutureCallback;
+import com.koushikdutta.async.future.SimpleFuture;
+import com.koushikdutta.async.parser.AsyncParser;
+import com.koushikdutta.async.parser.ByteBufferListParser;
+import com.koushikdutta.ion.bitmap.BitmapInfo;
+import com.koushikdutta.ion.bitmap.BitmapMetadata;
+import com.koushikdutta.ion.bitmap.IonBitmapCache;
+import com.koushikdutta.ion.bitmap.ImageHeaderSniffer;
+import com.koushikdutta.ion.bitmap.JpegScanCounter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Gathers the response like ByteBufferListParser, but once enough of the image has
+ * arrived (a byte threshold, or the first scan of a progressive JPEG), decodes a heavily
+ * subsampled preview from the partial data and delivers it to the waiting ImageViews.
+ * The download continues, and the final decode replaces the preview.
+ */
+class ProgressiveBitmapParser implements AsyncParser<ByteBufferList> {
+    // the preview is decoded at this fraction of the final size
+    static final int PREVIEW_SAMPLE_SIZE = 4;
+
+    Ion ion;
+    String key;
+    int threshold;
+    int resizeWidth;
+    int resizeHeight;
+    boolean previewed;
+    int received;
+    JpegScanCounter scans = new JpegScanCounter();
+    // set once the body is complete or cancelled. read on the decode thread, since the
+    // pending bitmaps may only be checked on the main thread.
+    volatile boolean done;
+
+    public ProgressiveBitmapParser(Ion ion, String key, int threshold, int resizeWidth, int resizeHeight) {
+        this.ion = ion;
+        this.key = key;
+        this.threshold = threshold;
+        this.resizeWidth = resizeWidth;
+        this.resizeHeight = resizeHeight;
+    }
+
+    @Override
+    public Future<ByteBufferList> parse(final DataEmitter emitter) {
+        final ByteBufferList bb = new ByteBufferList();
+        final SimpleFuture<ByteBufferList> ret = new SimpleFuture<ByteBufferList>() {
+            @Override
+            protected void cancelCleanup() {
+                done = true;
+                emitter.close();
+            }
+        };
+        emitter.setDataCallback(new DataCallback() {
+            @Override
+            public void onDataAvailable(DataEmitter emitter, ByteBufferList data) {
+                if (!previewed)
+                    scan(data);
+                data.get(bb);
+                if (!previewed && (received >= threshold || scans.getScanCount() >= 2)) {
+                    previewed = true;
+                    preview(copy(bb));
+                }
+            }
+        });
+        emitter.setEndCallback(new CompletedCallback() {
+            @Override
+            public void onCompleted(Exception ex) {
+                done = true;
+                if (ex != null) {
+                    ret.setComplete(ex);
+                    return;
+                }
+                ret.setComplete(bb);
+            }
+        });
+        return ret;
+    }
+
+    // count the top level JPEG start of scan markers. a second SOS means
+    // the first progressive scan is complete.
+    private void scan(ByteBufferList data) {
+        ByteBuffer[] buffers = data.getAllArray();
+        for (ByteBuffer b: buffers) {
+            if (!scans.isStopped())
+                scans.feed(b);
+            received += b.remaining();
+        }
+        data.addAll(buffers);
+    }
+
+    private static byte[] copy(ByteBufferList list) {
+        ByteBuffer[] buffers = list.getAllArray();
+        byte[] ret = new byte[list.remaining()];
+        int offset = 0;
+        for (ByteBuffer b: buffers) {
+            ByteBuffer dup = b.duplicate();
+            int count = dup.remaining();
+            dup.get(ret, offset, count);
+            offset += count;
+        }
+        list.addAll(buffers);
+        return ret;
+    }
+
+    private void preview(final byte[] bytes) {
+        ion.bitmapExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // the final bitmap is about to be decoded, or is no longer wanted
+                if (done)
+                    return;
+                try {
+                    BitmapMetadata metadata = ImageHeaderSniffer.sniff(bytes, 0, bytes.length);
+                    if (metadata == null)
+                        return;
+                    BitmapFactory.Options options = ion.bitmapCache.prepareBitmapOptions(metadata, resizeWidth, resizeHeight);
+                    // the decoder rounds the sample size down to a power of two
+                    int sampleSize = Integer.highestOneBit(Math.max(1, options.inSampleSize));
+                    options.inSampleSize = sampleSize * PREVIEW_SAMPLE_SIZE;
+                    Bitmap bitmap = IonBitmapCache.loadBitmap(bytes, 0, bytes.length, options, metadata.orientation);
+                    if (bitmap == null)
+                        return;
+                    // the preview reports the size the final decode will have, after orientation,
+                    // so the drawable is sized the same before and after it is replaced.
+                    Point size = metadata.getDisplaySize();
+                    size.x = (size.x + sampleSize - 1) / sampleSize;
+                    size.y = (size.y + sampleSize - 1) / sampleSize;
+                    final BitmapInfo info = new BitmapInfo(key, metadata.mimeType, new Bitmap[] { bitmap }, size);
+                    info.preview = true;
+                    info.loadedFrom = Loader.LoaderEmitter.LOADED_FROM_NETWORK;
+                    AsyncServer.post(Ion.mainHandler, new Runnable() {
+                        @Override
+                        public void run() {
+                            deliver(info);
+                        }
+                    });
+                }
+                catch (OutOfMemoryError e) {
+                }
+                catch (Exception e) {
+                }
+            }
+        });
+    }
+
+    private void deliver(BitmapInfo info) {
+        if (ion.bitmapsPending.tag(key) == null)
+            return;
+        ArrayList<FutureCallback<BitmapInfo>> callbacks = ion.bitmapsPending.get(key);
+        if (callbacks == null)
+            return;
+        for (FutureCallback<BitmapInfo> callback: new ArrayList<FutureCallback<BitmapInfo>>(callbacks)) {
+            if (callback instanceof IonDrawable.IonDrawableCallback)
+                ((IonDrawable.IonDrawableCallback)callback).onPreview(info);
+        }
+    }
+
+    @Override
+    public void write(DataSink sink, ByteBufferList value, CompletedCallback completed) {
+        new ByteBufferListParser().write(sink, value, completed);
+    }
+}
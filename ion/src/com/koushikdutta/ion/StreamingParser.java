@@ -0,0 +1,18 @@
+package com.koushikdutta.ion;
+
+import java.io.InputStream;
+
+/**
+ * A parser that can read a body with blocking I/O, as it arrives.
+ * Ion parses large bodies with this on a worker thread, while they are still being transferred,
+ * rather than gathering the whole body first. See DataEmitterInputStream.
+ */
+public interface StreamingParser<T> {
+    /**
+     * @param stream The body
+     * @param charset The charset of the body, or null if it was not given
+     * @return The parsed result
+     * @throws Exception
+     */
+    public T parse(InputStream stream, String charset) throws Exception;
+}
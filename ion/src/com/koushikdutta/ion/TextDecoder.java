@@ -0,0 +1,143 @@
+package com.koushikdutta.ion;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Decodes text incrementally, as its buffers arrive, into a char buffer that is sized for the
+ * expected length of the body up front. The text is only copied once more, into the String.
+ * Characters split across buffers are carried over to the next buffer.
+ * Malformed input is replaced, the same as {@link String#String(byte[], String)} does.
+ */
+public class TextDecoder {
+    /**
+     * The charset of bodies that do not specify one, or specify one that is not supported.
+     */
+    public static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+
+    // large enough for the longest character of any common charset
+    private static final int MAX_CHARACTER_BYTES = 16;
+    private static final int DEFAULT_CAPACITY = 8192;
+
+    private final CharsetDecoder decoder;
+    private CharBuffer chars;
+    // the bytes of a character split across buffers, in write mode
+    private final ByteBuffer partial = ByteBuffer.allocate(MAX_CHARACTER_BYTES);
+    private boolean finished;
+
+    /**
+     * @param charset The charset of the body, or null if it was not given
+     * @param length The length of the body in bytes, or -1 if it is not known
+     */
+    public TextDecoder(String charset, long length) {
+        decoder = newDecoder(charset);
+        int capacity = DEFAULT_CAPACITY;
+        if (length >= 0)
+            capacity = (int)Math.min(Integer.MAX_VALUE - 8, (long)Math.ceil(length * (double)decoder.maxCharsPerByte()));
+        chars = CharBuffer.allocate(capacity);
+    }
+
+    /**
+     * @param charset A charset name, or null
+     * @return The named charset, or {@link #DEFAULT_CHARSET} if it is null or not supported.
+     */
+    public static Charset forName(String charset) {
+        if (charset == null)
+            return DEFAULT_CHARSET;
+        try {
+            return Charset.forName(charset);
+        }
+        catch (Exception e) {
+            return DEFAULT_CHARSET;
+        }
+    }
+
+    private static CharsetDecoder newDecoder(String charset) {
+        return forName(charset).newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Create a Reader that decodes a stream in the given charset.
+     * @param stream
+     * @param charset The charset of the stream, or null if it was not given
+     * @return
+     */
+    public static Reader newReader(InputStream stream, String charset) {
+        return new InputStreamReader(stream, newDecoder(charset));
+    }
+
+    /**
+     * Decode the remaining bytes of the buffer. Bytes of a character that is split across
+     * buffers are kept until the next call.
+     * @param bytes
+     */
+    public void decode(ByteBuffer bytes) {
+        if (finished)
+            throw new IllegalStateException("decoder is finished");
+        if (partial.position() > 0) {
+            // complete the split character with the start of this buffer
+            int pending = partial.position();
+            int start = bytes.position();
+            int count = Math.min(partial.remaining(), bytes.remaining());
+            ByteBuffer head = bytes.duplicate();
+            head.limit(start + count);
+            partial.put(head);
+            partial.flip();
+            decode(partial, false);
+            int consumed = partial.position();
+            if (consumed < pending) {
+                // still incomplete, and every byte of this buffer was carried over
+                partial.compact();
+                bytes.position(start + count);
+                return;
+            }
+            partial.clear();
+            bytes.position(start + consumed - pending);
+        }
+        decode(bytes, false);
+        if (bytes.hasRemaining())
+            partial.put(bytes);
+    }
+
+    private void decode(ByteBuffer bytes, boolean endOfInput) {
+        while (true) {
+            CoderResult result = decoder.decode(bytes, chars, endOfInput);
+            if (!result.isOverflow())
+                return;
+            grow();
+        }
+    }
+
+    private void grow() {
+        CharBuffer grown = CharBuffer.allocate(Math.max(DEFAULT_CAPACITY, chars.capacity() * 2));
+        chars.flip();
+        grown.put(chars);
+        chars = grown;
+    }
+
+    /**
+     * Decode any bytes that are left, and return the text. An incomplete character at
+     * the end of the body is replaced.
+     * @return
+     */
+    public String finish() {
+        if (!finished) {
+            finished = true;
+            partial.flip();
+            decode(partial, true);
+            while (decoder.flush(chars).isOverflow()) {
+                grow();
+            }
+        }
+        return new String(chars.array(), 0, chars.position());
+    }
+}
@@ -0,0 +1,75 @@
+package com.koushikdutta.ion;
+
+import com.koushikdutta.async.ByteBufferList;
+import com.koushikdutta.async.DataEmitter;
+import com.koushikdutta.async.DataSink;
+import com.koushikdutta.async.callback.CompletedCallback;
+import com.koushikdutta.async.callback.DataCallback;
+import com.koushikdutta.async.future.Future;
+import com.koushikdutta.async.future.SimpleFuture;
+import com.koushikdutta.async.parser.AsyncParser;
+import com.koushikdutta.async.parser.StringParser;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes a text body in the charset of the response as it arrives, rather than gathering
+ * the whole body first. See TextDecoder.
+ */
+public class TextParser implements AsyncParser<String>, StreamingParser<String> {
+    private static final int READ_SIZE = 8192;
+
+    // the expected length of the body, used to size the decoded text up front
+    long length = -1;
+
+    @Override
+    public Future<String> parse(final DataEmitter emitter) {
+        final TextDecoder decoder = new TextDecoder(emitter.charset(), length);
+        final SimpleFuture<String> ret = new SimpleFuture<String>() {
+            @Override
+            protected void cancelCleanup() {
+                emitter.close();
+            }
+        };
+        emitter.setDataCallback(new DataCallback() {
+            @Override
+            public void onDataAvailable(DataEmitter emitter, ByteBufferList data) {
+                for (ByteBuffer b: data.getAllArray()) {
+                    decoder.decode(b);
+                    ByteBufferList.reclaim(b);
+                }
+            }
+        });
+        emitter.setEndCallback(new CompletedCallback() {
+            @Override
+            public void onCompleted(Exception ex) {
+                if (ex != null) {
+                    ret.setComplete(ex);
+                    return;
+                }
+                ret.setComplete(decoder.finish());
+            }
+        });
+        return ret;
+    }
+
+    @Override
+    public String parse(InputStream stream, String charset) throws Exception {
+        TextDecoder decoder = new TextDecoder(charset, length);
+        byte[] buffer = new byte[READ_SIZE];
+        ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            wrapped.clear();
+            wrapped.limit(read);
+            decoder.decode(wrapped);
+        }
+        return decoder.finish();
+    }
+
+    @Override
+    public void write(DataSink sink, String value, CompletedCallback completed) {
+        new StringParser().write(sink, value, completed);
+    }
+}
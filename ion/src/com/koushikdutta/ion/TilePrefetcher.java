@@ -0,0 +1,144 @@
+package com.koushikdutta.ion;
+
+import android.graphics.Rect;
+
+/**
+ * Predicts the deep zoom tiles that will be needed next, from the motion of the
+ * viewport between frames. While panning, the next ring of tiles ahead of the viewport
+ * at the current level is prefetched. While pinching, the tiles covering the viewport at the
+ * next level in the direction of the zoom are prefetched.
+ * When the user reverses direction, the outstanding prefetches are discarded immediately.
+ * This is only accessed from the UI thread.
+ */
+class TilePrefetcher {
+    // the viewport needs to move at least this fraction of its size per frame
+    // to be considered moving in a direction.
+    private static final int MOTION_DIVISOR = 100;
+
+    TileScheduler scheduler;
+    int textureDim;
+    int maxLevel;
+    boolean hasFrame;
+    int lastX;
+    int lastY;
+    int lastWidth;
+    int dirX;
+    int dirY;
+    int zoomDir;
+    Rect region = new Rect();
+
+    public TilePrefetcher(TileScheduler scheduler, int textureDim, int maxLevel) {
+        this.scheduler = scheduler;
+        this.textureDim = textureDim;
+        this.maxLevel = maxLevel;
+    }
+
+    private static int direction(int delta, int threshold) {
+        if (delta >= threshold)
+            return 1;
+        if (delta <= -threshold)
+            return -1;
+        return 0;
+    }
+
+    /**
+     * Issue the prefetches for a frame. This must be called between
+     * TileScheduler.beginFrame and endFrame.
+     * @param clip The viewport, in image coordinates
+     * @param bounds The image bounds
+     * @param level The current zoom level
+     */
+    public void update(Rect clip, Rect bounds, int level) {
+        int x = clip.centerX();
+        int y = clip.centerY();
+        int width = clip.width();
+        if (hasFrame) {
+            int threshold = Math.max(1, width / MOTION_DIVISOR);
+            int newDirX = direction(x - lastX, threshold);
+            int newDirY = direction(y - lastY, threshold);
+            int newZoomDir = -direction(width - lastWidth, threshold);
+
+            boolean reversed = (newDirX != 0 && newDirX == -dirX)
+                || (newDirY != 0 && newDirY == -dirY)
+                || (newZoomDir != 0 && newZoomDir == -zoomDir);
+            if (reversed)
+                scheduler.discardPrefetched();
+
+            // the last direction sticks while the viewport is at rest
+            if (newDirX != 0 || newDirY != 0 || newZoomDir != 0) {
+                dirX = newDirX;
+                dirY = newDirY;
+                zoomDir = newZoomDir;
+            }
+        }
+        hasFrame = true;
+        lastX = x;
+        lastY = y;
+        lastWidth = width;
+
+        // prefetches nearest the point the viewport is heading toward go first
+        int focusX = x + dirX * width / 2;
+        int focusY = y + dirY * clip.height() / 2;
+
+        if (dirX != 0 || dirY != 0)
+            prefetchRing(clip, bounds, level, focusX, focusY);
+
+        int nextLevel = level + zoomDir;
+        if (zoomDir != 0 && nextLevel >= 0 && nextLevel <= maxLevel)
+            prefetchLevel(clip, bounds, nextLevel, focusX, focusY);
+    }
+
+    private int getSampleSize(int textureTileDim) {
+        int sampleSize = 1;
+        while (textureTileDim / sampleSize > LoadMipmap.TILE_DIM)
+            sampleSize <<= 1;
+        return sampleSize;
+    }
+
+    private void prefetch(Rect bounds, int level, int textureTileDim, int sampleSize, int tx, int ty, int focusX, int focusY) {
+        int left = tx * textureTileDim;
+        int top = ty * textureTileDim;
+        if (tx < 0 || ty < 0 || left >= bounds.right || top >= bounds.bottom)
+            return;
+        region.set(left, top, Math.min(left + textureTileDim, bounds.right), Math.min(top + textureTileDim, bounds.bottom));
+        scheduler.prefetch(level, tx, ty, region, sampleSize, focusX, focusY);
+    }
+
+    // the column and/or row of tiles just outside the viewport, in the direction of the pan
+    private void prefetchRing(Rect clip, Rect bounds, int level, int focusX, int focusY) {
+        int textureTileDim = textureDim >> level;
+        int sampleSize = getSampleSize(textureTileDim);
+        int x0 = Math.max(0, clip.left) / textureTileDim;
+        int x1 = (Math.min(bounds.right, clip.right) - 1) / textureTileDim;
+        int y0 = Math.max(0, clip.top) / textureTileDim;
+        int y1 = (Math.min(bounds.bottom, clip.bottom) - 1) / textureTileDim;
+
+        if (dirX != 0) {
+            int tx = dirX > 0 ? x1 + 1 : x0 - 1;
+            for (int ty = y0 - 1; ty <= y1 + 1; ty++) {
+                prefetch(bounds, level, textureTileDim, sampleSize, tx, ty, focusX, focusY);
+            }
+        }
+        if (dirY != 0) {
+            int ty = dirY > 0 ? y1 + 1 : y0 - 1;
+            for (int tx = x0 - 1; tx <= x1 + 1; tx++) {
+                prefetch(bounds, level, textureTileDim, sampleSize, tx, ty, focusX, focusY);
+            }
+        }
+    }
+
+    // the tiles covering the viewport at another level
+    private void prefetchLevel(Rect clip, Rect bounds, int level, int focusX, int focusY) {
+        int textureTileDim = textureDim >> level;
+        int sampleSize = getSampleSize(textureTileDim);
+        int x0 = Math.max(0, clip.left) / textureTileDim;
+        int x1 = (Math.min(bounds.right, clip.right) - 1) / textureTileDim;
+        int y0 = Math.max(0, clip.top) / textureTileDim;
+        int y1 = (Math.min(bounds.bottom, clip.bottom) - 1) / textureTileDim;
+        for (int ty = y0; ty <= y1; ty++) {
+            for (int tx = x0; tx <= x1; tx++) {
+                prefetch(bounds, level, textureTileDim, sampleSize, tx, ty, focusX, focusY);
+            }
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package com.koushikdutta.ion;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.koushikdutta.async.future.FutureCallback;
+import com.koushikdutta.ion.bitmap.BitmapInfo;
+import com.koushikdutta.ion.bitmap.RegionDecoderPool;
+import com.koushikdutta.ion.bitmap.TileMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Schedules the region decodes of a deep zoom image.
+ * Each frame, the drawable requests the tiles it is missing. Requests on the current
+ * zoom level are dispatched in order of distance to the center of the viewport, with a cap
+ * on the number of region decodes in flight. Tiles that are no longer visible, or are
+ * no longer on the current level, are cancelled before they are decoded.
+ * Loaded tiles are added to the tile map of the image.
+ * Tiles may also be prefetched before they are visible. Prefetches are dispatched after
+ * visible tiles, and the prefetched tiles that have not been drawn yet are limited by a
+ * separate memory budget.
+ * Tile bitmaps are recycled for later decodes only where nothing can still draw them:
+ * prefetched tiles that are discarded before they were ever drawn, and the tiles of an
+ * image once no drawable shows it anymore, after a delay.
+ * This is only accessed from the UI thread.
+ */
+class TileScheduler {
+    static final int MAX_IN_FLIGHT = Math.max(2, Ion.availableProcessors);
+    static final int DEFAULT_PREFETCH_BUDGET = 4 * 1024 * 1024;
+    private static final int TILE_BYTES = LoadMipmap.TILE_DIM * LoadMipmap.TILE_DIM * 4;
+    // long enough for the views to draw again without the tiles of a torn down image,
+    // so no display list still references them when they are recycled.
+    static final long RECYCLE_DELAY = 500;
+    // visible tiles are touched in the bitmap cache when they become visible, and then
+    // at this interval while they stay visible, so they do not age out of the cache.
+    static final long TOUCH_INTERVAL = 1000;
+
+    static class TileRequest {
+        long tileKey;
+        String key;
+        int level;
+        Rect region;
+        int sampleSize;
+        long distance;
+        int frame;
+        int prefetchFrame;
+        // only wanted by the prefetcher
+        boolean prefetch;
+        boolean prefetchStarted;
+        // waits for the tile on bitmapsPending, once the request is started
+        FutureCallback<BitmapInfo> callback;
+        // the load, if this scheduler started it, rather than another drawable
+        LoadBitmapRegion load;
+    }
+
+    Ion ion;
+    BitmapInfo image;
+    RegionDecoderPool decoders;
+    TileMap<BitmapInfo> tiles;
+    FutureCallback<BitmapInfo> tileCallback;
+    TileMap<TileRequest> requests = new TileMap<TileRequest>();
+    // reused every frame
+    ArrayList<TileRequest> queue = new ArrayList<TileRequest>();
+    int inFlight;
+    int maxInFlight = MAX_IN_FLIGHT;
+    int frame;
+    long frameTime;
+    // visible tiles to touch in the bitmap cache at the end of the frame
+    ArrayList<BitmapInfo> touched = new ArrayList<BitmapInfo>();
+    int currentLevel;
+    int centerX;
+    int centerY;
+    int prefetchBudget = DEFAULT_PREFETCH_BUDGET;
+    int prefetchInFlight;
+    long prefetchedBytes;
+    // loaded prefetched tiles that have not been drawn yet
+    TileMap<BitmapInfo> prefetched = new TileMap<BitmapInfo>();
+    ArrayList<BitmapInfo> stale = new ArrayList<BitmapInfo>();
+
+    public TileScheduler(Ion ion, BitmapInfo image, FutureCallback<BitmapInfo> tileCallback) {
+        this.ion = ion;
+        this.image = image;
+        this.decoders = image.decoderPool;
+        this.tiles = image.tiles;
+        this.tileCallback = tileCallback;
+        image.tileUsers++;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    public int getQueued() {
+        return requests.size() - inFlight;
+    }
+
+    public void setPrefetchBudget(int prefetchBudget) {
+        this.prefetchBudget = prefetchBudget;
+    }
+
+    public int getPrefetchBudget() {
+        return prefetchBudget;
+    }
+
+    public long getPrefetchedBytes() {
+        return prefetchedBytes;
+    }
+
+    /**
+     * Start collecting the tile requests for a frame.
+     * @param level The zoom level being rendered
+     * @param centerX Center of the viewport, in image coordinates
+     * @param centerY Center of the viewport, in image coordinates
+     */
+    public void beginFrame(int level, int centerX, int centerY) {
+        assert Thread.currentThread() == Looper.getMainLooper().getThread();
+        frame++;
+        frameTime = SystemClock.uptimeMillis();
+        currentLevel = level;
+        this.centerX = centerX;
+        this.centerY = centerY;
+    }
+
+    /**
+     * Request a tile that is needed for the current frame.
+     * @return The tile, if it was found in the bitmap cache, which also adds it to the tile map.
+     */
+    public BitmapInfo request(int level, int x, int y, Rect region, int sampleSize) {
+        long tileKey = TileMap.key(level, x, y);
+        TileRequest request = requests.get(tileKey);
+        if (request == null) {
+            // the string key is only needed to share the load through the bitmap cache,
+            // so it is only computed once per request.
+            String key = LoadMipmap.getTileKey(image.key, level, x, y);
+            BitmapInfo cached = ion.bitmapCache.get(key);
+            if (cached != null && cached.bitmaps != null) {
+                addTile(tileKey, cached);
+                return cached;
+            }
+
+            request = new TileRequest();
+            request.tileKey = tileKey;
+            request.key = key;
+            request.level = level;
+            request.region = new Rect(region);
+            request.sampleSize = sampleSize;
+            requests.put(tileKey, request);
+        }
+        long dx = region.centerX() - centerX;
+        long dy = region.centerY() - centerY;
+        request.distance = dx * dx + dy * dy;
+        request.frame = frame;
+        request.prefetch = false;
+        return null;
+    }
+
+    /**
+     * Request a tile that is likely to be needed soon.
+     * @param focusX The point the prefetch is centered on, in image coordinates
+     * @param focusY
+     */
+    public void prefetch(int level, int x, int y, Rect region, int sampleSize, int focusX, int focusY) {
+        long tileKey = TileMap.key(level, x, y);
+        if (tiles.get(tileKey) != null)
+            return;
+        TileRequest request = requests.get(tileKey);
+        if (request == null) {
+            String key = LoadMipmap.getTileKey(image.key, level, x, y);
+            BitmapInfo cached = ion.bitmapCache.get(key);
+            if (cached != null && cached.bitmaps != null) {
+                addTile(tileKey, cached);
+                return;
+            }
+
+            request = new TileRequest();
+            request.tileKey = tileKey;
+            request.key = key;
+            request.level = level;
+            request.region = new Rect(region);
+            request.sampleSize = sampleSize;
+            request.prefetch = true;
+            requests.put(tileKey, request);
+        }
+        request.prefetchFrame = frame;
+        // visible this frame, it keeps the visible priority
+        if (!request.prefetch)
+            return;
+        long dx = region.centerX() - focusX;
+        long dy = region.centerY() - focusY;
+        request.distance = dx * dx + dy * dy;
+    }
+
+    /**
+     * Note that a tile was drawn, so it no longer counts against the prefetch budget.
+     */
+    public void onTileDrawn(long tileKey) {
+        if (prefetched.size() == 0)
+            return;
+        BitmapInfo tile = prefetched.remove(tileKey);
+        if (tile != null)
+            prefetchedBytes -= tile.sizeOf();
+    }
+
+    /**
+     * Note that a tile is drawn this frame. Rather than touching the bitmap cache
+     * for every tile on every draw, which takes the cache and budget locks that the
+     * decode threads also use, a tile is only touched when it becomes visible, and then
+     * every so often, once per frame for all of the tiles together.
+     */
+    public void onTileVisible(BitmapInfo tile) {
+        tile.drawn = true;
+        if (frameTime - tile.touchTime < TOUCH_INTERVAL)
+            return;
+        tile.touchTime = frameTime;
+        touched.add(tile);
+    }
+
+    /**
+     * Cancel the prefetches, and drop the prefetched tiles that were never drawn,
+     * for example when the user reverses direction.
+     */
+    public void discardPrefetched() {
+        queue.clear();
+        for (int i = 0; i < requests.capacity(); i++) {
+            TileRequest request = requests.valueAt(i);
+            if (request != null && request.prefetch && request.callback != null)
+                queue.add(request);
+        }
+        for (TileRequest request: queue) {
+            abandon(request);
+            requests.remove(request.tileKey);
+        }
+        queue.clear();
+
+        stale.clear();
+        for (int i = 0; i < prefetched.capacity(); i++) {
+            BitmapInfo tile = prefetched.valueAt(i);
+            if (tile != null)
+                stale.add(tile);
+        }
+        for (BitmapInfo tile: stale) {
+            // removing it from the cache also removes it from the tile map.
+            // a tile that was never drawn is not referenced by any display list.
+            if (tiles.get(tile.tileKey) == tile && ion.bitmapCache.removeTile(tile) && !tile.drawn)
+                ion.bitmapCache.recycleTile(tile.bitmaps[0]);
+        }
+        stale.clear();
+        prefetched.clear();
+        prefetchedBytes = 0;
+    }
+
+    // stop counting prefetched tiles that the bitmap cache has since evicted
+    private void trimPrefetched() {
+        stale.clear();
+        for (int i = 0; i < prefetched.capacity(); i++) {
+            BitmapInfo tile = prefetched.valueAt(i);
+            if (tile != null && tiles.get(tile.tileKey) != tile)
+                stale.add(tile);
+        }
+        for (BitmapInfo tile: stale) {
+            prefetched.remove(tile.tileKey);
+            prefetchedBytes -= tile.sizeOf();
+        }
+        stale.clear();
+    }
+
+    private boolean canPrefetch() {
+        if (prefetchInFlight >= Math.max(1, maxInFlight / 2))
+            return false;
+        if (prefetchedBytes + (prefetchInFlight + 1) * TILE_BYTES <= prefetchBudget)
+            return true;
+        trimPrefetched();
+        return prefetchedBytes + (prefetchInFlight + 1) * TILE_BYTES <= prefetchBudget;
+    }
+
+    private void addTile(long tileKey, BitmapInfo tile) {
+        // tiles leave the map when they are evicted from the bitmap cache
+        tile.tileOwner = tiles;
+        tile.tileKey = tileKey;
+        tiles.put(tileKey, tile);
+    }
+
+    /**
+     * Cancel the requests that were not made during this frame,
+     * and dispatch the most important of the remaining requests.
+     */
+    public void endFrame() {
+        if (!touched.isEmpty()) {
+            ion.bitmapCache.touch(touched);
+            touched.clear();
+        }
+
+        if (requests.size() == 0)
+            return;
+
+        // requests can not be removed while iterating, so collect the stale ones first
+        queue.clear();
+        for (int i = 0; i < requests.capacity(); i++) {
+            TileRequest request = requests.valueAt(i);
+            if (request == null)
+                continue;
+            boolean visible = request.frame == frame && request.level == currentLevel;
+            boolean wanted = visible || request.prefetchFrame == frame;
+            request.prefetch = !visible;
+            if (!wanted)
+                queue.add(request);
+        }
+        for (TileRequest request: queue) {
+            if (request.callback != null)
+                abandon(request);
+            requests.remove(request.tileKey);
+        }
+
+        queue.clear();
+        for (int i = 0; i < requests.capacity(); i++) {
+            TileRequest request = requests.valueAt(i);
+            if (request != null && request.callback == null)
+                queue.add(request);
+        }
+
+        dispatch();
+    }
+
+    private static final Comparator<TileRequest> PRIORITY = new Comparator<TileRequest>() {
+        @Override
+        public int compare(TileRequest lhs, TileRequest rhs) {
+            // visible tiles first
+            if (lhs.prefetch != rhs.prefetch)
+                return lhs.prefetch ? 1 : -1;
+            if (lhs.distance < rhs.distance)
+                return -1;
+            if (lhs.distance > rhs.distance)
+                return 1;
+            return 0;
+        }
+    };
+
+    private void dispatch() {
+        if (inFlight < maxInFlight && !queue.isEmpty()) {
+            Collections.sort(queue, PRIORITY);
+            for (TileRequest request: queue) {
+                if (inFlight >= maxInFlight)
+                    break;
+                if (request.prefetch) {
+                    if (!canPrefetch())
+                        break;
+                    request.prefetchStarted = true;
+                    prefetchInFlight++;
+                }
+                start(request);
+            }
+        }
+        queue.clear();
+    }
+
+    // stop waiting for a started request. the load is only cancelled if this scheduler
+    // started it and nothing else is waiting for it, since another drawable may share it.
+    // in flight decodes are cancelled if they have not started yet.
+    private void abandon(TileRequest request) {
+        boolean last = ion.bitmapsPending.removeItem(request.key, request.callback);
+        if (last && request.load != null)
+            request.load.cancel();
+        inFlight--;
+        if (request.prefetchStarted)
+            prefetchInFlight--;
+    }
+
+    private void start(final TileRequest request) {
+        inFlight++;
+        // another drawable may already be loading this tile, in which case the load is shared
+        if (ion.bitmapsPending.tag(request.key) == null)
+            request.load = new LoadBitmapRegion(ion, request.key, image.mipmap, decoders, request.region, request.sampleSize,
+                request.prefetch ? PriorityRunnable.BACKGROUND_PRIORITY : PriorityRunnable.DEFAULT_PRIORITY);
+        request.callback = new FutureCallback<BitmapInfo>() {
+            @Override
+            public void onCompleted(Exception e, BitmapInfo result) {
+                inFlight--;
+                if (request.prefetchStarted)
+                    prefetchInFlight--;
+                requests.remove(request.tileKey, request);
+                // the tile may have been evicted as soon as it was cached
+                if (result != null && result.bitmaps != null && ion.bitmapCache.get(result.key) == result) {
+                    addTile(request.tileKey, result);
+                    if (request.prefetch && prefetched.put(request.tileKey, result) == null)
+                        prefetchedBytes += result.sizeOf();
+                }
+                tileCallback.onCompleted(e, result);
+            }
+        };
+        ion.bitmapsPending.add(request.key, request.callback);
+    }
+
+    /**
+     * Cancel all the requests, for example when the drawable is showing another image.
+     */
+    public void cancelAll() {
+        for (int i = 0; i < requests.capacity(); i++) {
+            TileRequest request = requests.valueAt(i);
+            if (request != null && request.callback != null)
+                abandon(request);
+        }
+        requests.clear();
+        queue.clear();
+        prefetched.clear();
+        prefetchedBytes = 0;
+
+        if (--image.tileUsers == 0)
+            releaseTiles();
+    }
+
+    // no drawable shows the image anymore, so its tiles are taken out of the cache,
+    // and their bitmaps are recycled once the views have drawn without them.
+    private void releaseTiles() {
+        final ArrayList<Bitmap> bitmaps = new ArrayList<Bitmap>();
+        stale.clear();
+        for (int i = 0; i < tiles.capacity(); i++) {
+            BitmapInfo tile = tiles.valueAt(i);
+            if (tile != null)
+                stale.add(tile);
+        }
+        for (BitmapInfo tile: stale) {
+            if (ion.bitmapCache.removeTile(tile) && tile.bitmaps != null)
+                bitmaps.add(tile.bitmaps[0]);
+        }
+        stale.clear();
+        if (bitmaps.isEmpty())
+            return;
+        Ion.mainHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                for (Bitmap bitmap: bitmaps) {
+                    ion.bitmapCache.recycleTile(bitmap);
+                }
+            }
+        }, RECYCLE_DELAY);
+    }
+}
@@ -35,16 +35,17 @@ class TransformBitmap extends BitmapCallback implements FutureCallback<BitmapInf
     ArrayList<Transform> transforms;
     ArrayList<PostProcess> postProcess;
 
-    public static void getBitmapSnapshot(final Ion ion, final String transformKey, final ArrayList<PostProcess> postProcess) {
+    public static void getBitmapSnapshot(final Ion ion, final String transformKey, final ArrayList<PostProcess> postProcess, int priority) {
         // don't do this if this is already loading
         if (ion.bitmapsPending.tag(transformKey) != null)
             return;
-        final BitmapCallback callback = new LoadBitmapBase(ion, transformKey, true);
-        Ion.getBitmapLoadExecutorService().execute(new Runnable() {
+        final LoadBitmapBase callback = new LoadBitmapBase(ion, transformKey, true);
+        ion.bitmapExecutor.execute(new PriorityRunnable(priority) {
             @Override
             public void run() {
                 if (ion.bitmapsPending.tag(transformKey) != callback) {
 //                    Log.d("IonBitmapLoader", "Bitmap cache load cancelled (no longer needed)");
+                    callback.finish();
                     return;
                 }
 
@@ -80,11 +81,13 @@ class TransformBitmap extends BitmapCallback implements FutureCallback<BitmapInf
     }
 
     String downloadKey;
-    public TransformBitmap(Ion ion, String transformKey, String downloadKey, ArrayList<Transform> transforms, ArrayList<PostProcess> postProcess) {
+    int priority;
+    public TransformBitmap(Ion ion, String transformKey, String downloadKey, ArrayList<Transform> transforms, ArrayList<PostProcess> postProcess, int priority) {
         super(ion, transformKey, true);
         this.transforms = transforms;
         this.downloadKey = downloadKey;
         this.postProcess = postProcess;
+        this.priority = priority;
     }
 
     @Override
@@ -99,7 +102,7 @@ class TransformBitmap extends BitmapCallback implements FutureCallback<BitmapInf
             return;
         }
 
-        Ion.getBitmapLoadExecutorService().execute(new Runnable() {
+        ion.bitmapExecutor.execute(new PriorityRunnable(priority) {
             @Override
             public void run() {
                 if (ion.bitmapsPending.tag(key) != TransformBitmap.this) {
@@ -5,6 +5,7 @@ import android.graphics.BitmapRegionDecoder;
 import android.graphics.Point;
 
 import com.koushikdutta.async.util.UntypedHashtable;
+import com.koushikdutta.ion.LoadMipmap;
 
 import java.io.File;
 
@@ -28,9 +29,26 @@ public class BitmapInfo {
     public int[] delays;
     public Exception exception;
     public BitmapRegionDecoder decoder;
+    public RegionDecoderPool decoderPool;
+    // the persistent tile pyramid of a deep zoom image
+    public LoadMipmap mipmap;
     public File decoderFile;
     public final String mimeType;
     public final UntypedHashtable extras = new UntypedHashtable();
+    // a low resolution preview decoded from a partial download. never cached.
+    public boolean preview;
+    // the loaded tiles of a deep zoom image
+    public TileMap<BitmapInfo> tiles;
+    // the tile map holding this tile, if any, and its key within it
+    public TileMap<BitmapInfo> tileOwner;
+    public long tileKey;
+    // set on the UI thread once the tile is drawn, after which a display list may
+    // reference its bitmap. tiles that were never drawn may be recycled right away.
+    public boolean drawn;
+    // when a drawable last touched the tile in the cache, in uptime milliseconds
+    public long touchTime;
+    // the number of drawables scheduling tiles of this deep zoom image
+    public int tileUsers;
 
     public int sizeOf() {
         if (bitmaps == null)
@@ -0,0 +1,159 @@
+package com.koushikdutta.ion.bitmap;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+
+/**
+ * Process wide memory budget that is shared by the bitmap caches of all
+ * Ion instances. Each IonBitmapCache registers with the budget, and when the
+ * combined size of all the caches goes over the budget, bitmaps are evicted
+ * from the caches that are over their weighted allocation, least recently used first.
+ */
+public class BitmapMemoryBudget {
+    private static BitmapMemoryBudget instance;
+
+    public static synchronized BitmapMemoryBudget getDefault(Context context) {
+        if (instance == null)
+            instance = new BitmapMemoryBudget(getHeapSize(context));
+        return instance;
+    }
+
+    public static final double DEFAULT_HEAP_RATIO = 1d / 7d;
+
+    ArrayList<IonBitmapCache> caches = new ArrayList<IonBitmapCache>();
+    long heapSize;
+    double heapRatio = DEFAULT_HEAP_RATIO;
+
+    BitmapMemoryBudget(long heapSize) {
+        this.heapSize = heapSize;
+    }
+
+    /**
+     * Get the fraction of the heap that is shared by all bitmap caches.
+     * @return
+     */
+    public double getHeapRatio() {
+        return heapRatio;
+    }
+
+    /**
+     * Set the fraction of the heap that is shared by all bitmap caches.
+     * @param heapRatio
+     */
+    public void setHeapRatio(double heapRatio) {
+        synchronized (this) {
+            this.heapRatio = heapRatio;
+        }
+        trim();
+    }
+
+    /**
+     * Get the total number of bytes that may be used by all bitmap caches.
+     * @return
+     */
+    public synchronized long getMaxSize() {
+        return (long)(heapSize * heapRatio);
+    }
+
+    /**
+     * Get the total number of bytes currently held by all bitmap caches.
+     * @return
+     */
+    public synchronized long size() {
+        long ret = 0;
+        for (IonBitmapCache cache: caches) {
+            ret += cache.cache.size();
+        }
+        return ret;
+    }
+
+    synchronized void register(IonBitmapCache cache) {
+        if (!caches.contains(cache))
+            caches.add(cache);
+    }
+
+    synchronized void unregister(IonBitmapCache cache) {
+        caches.remove(cache);
+    }
+
+    synchronized double getWeight(IonBitmapCache cache) {
+        return cache.budgetWeight;
+    }
+
+    void setWeight(IonBitmapCache cache, double weight) {
+        synchronized (this) {
+            cache.budgetWeight = weight;
+        }
+        trim();
+    }
+
+    /**
+     * Get the number of bytes the given cache is entitled to, as a
+     * weighted share of the budget. A cache may grow past its allocation
+     * while the other caches are not using theirs.
+     * @param cache
+     * @return
+     */
+    public synchronized long getAllocation(IonBitmapCache cache) {
+        double totalWeight = 0;
+        for (IonBitmapCache c: caches) {
+            totalWeight += c.budgetWeight;
+        }
+        if (totalWeight <= 0 || !caches.contains(cache))
+            return 0;
+        return (long)(getMaxSize() * (cache.budgetWeight / totalWeight));
+    }
+
+    synchronized void touch(IonBitmapCache cache) {
+        cache.lastAccess = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Evict bitmaps until all the registered caches fit in the budget.
+     */
+    public synchronized void trim() {
+        long maxSize = getMaxSize();
+        long total = size();
+        // every pass either trims a cache or bails, so this is bounded
+        // by the number of caches.
+        for (int i = 0; i <= caches.size() && total > maxSize; i++) {
+            IonBitmapCache victim = null;
+            long victimAllocation = 0;
+            // prefer the least recently used cache that is over its allocation.
+            for (IonBitmapCache cache: caches) {
+                long allocation = getAllocation(cache);
+                if (cache.cache.size() <= allocation)
+                    continue;
+                if (victim == null || cache.lastAccess < victim.lastAccess) {
+                    victim = cache;
+                    victimAllocation = allocation;
+                }
+            }
+            // everyone is within their allocation, which can happen when the
+            // weights were changed. fall back to the least recently used cache.
+            if (victim == null) {
+                for (IonBitmapCache cache: caches) {
+                    if (cache.cache.size() == 0)
+                        continue;
+                    if (victim == null || cache.lastAccess < victim.lastAccess)
+                        victim = cache;
+                }
+                victimAllocation = 0;
+            }
+            if (victim == null)
+                return;
+
+            long size = victim.cache.size();
+            long target = Math.max(victimAllocation, size - (total - maxSize));
+            victim.cache.trimToSize(target);
+            total -= size - victim.cache.size();
+        }
+    }
+
+    static int getHeapSize(final Context context) {
+        return ((ActivityManager)context.getSystemService(Context.ACTIVITY_SERVICE)).getMemoryClass() * 1024 * 1024;
+    }
+}
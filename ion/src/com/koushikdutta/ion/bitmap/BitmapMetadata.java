@@ -0,0 +1,69 @@
+package com.koushikdutta.ion.bitmap;
+
+import android.graphics.Point;
+
+/**
+ * The original dimensions, mime type and orientation of an image source.
+ * These are cached by download key so that repeat loads can skip the
+ * bounds decode, and can be used to size views before the image arrives.
+ */
+public class BitmapMetadata {
+    public BitmapMetadata(int width, int height, String mimeType, int orientation) {
+        this.width = width;
+        this.height = height;
+        this.mimeType = mimeType;
+        this.orientation = orientation;
+    }
+
+    /**
+     * Original width of the image, before orientation is applied
+     */
+    final public int width;
+    /**
+     * Original height of the image, before orientation is applied
+     */
+    final public int height;
+    final public String mimeType;
+    /**
+     * Rotation in degrees clockwise: 0, 90, 180 or 270.
+     */
+    final public int orientation;
+    /**
+     * Identifies the version of the source the metadata was read from, such as the modification
+     * time and length of a file. Used to invalidate the cached metadata if the source changes.
+     */
+    public String sourceVersion;
+
+    public Point getOriginalSize() {
+        return new Point(width, height);
+    }
+
+    /**
+     * Get the size of the image as it will be displayed, after orientation is applied.
+     * @return
+     */
+    public Point getDisplaySize() {
+        if (orientation == 90 || orientation == 270)
+            return new Point(height, width);
+        return new Point(width, height);
+    }
+
+    String serialize() {
+        return width + "\n" + height + "\n" + (mimeType == null ? "" : mimeType) + "\n" + orientation + "\n" + (sourceVersion == null ? "" : sourceVersion);
+    }
+
+    static BitmapMetadata deserialize(String value) {
+        String[] lines = value.split("\n", -1);
+        if (lines.length < 5)
+            return null;
+        try {
+            String mimeType = lines[2].length() == 0 ? null : lines[2];
+            BitmapMetadata ret = new BitmapMetadata(Integer.parseInt(lines[0]), Integer.parseInt(lines[1]), mimeType, Integer.parseInt(lines[3]));
+            ret.sourceVersion = lines[4].length() == 0 ? null : lines[4];
+            return ret;
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.koushikdutta.ion.bitmap;
+
+import com.koushikdutta.async.util.FileCache;
+import com.koushikdutta.async.util.LruCache;
+import com.koushikdutta.async.util.StreamUtility;
+
+import java.io.File;
+
+/**
+ * Memory cache of BitmapMetadata, backed by a small persistent FileCache.
+ */
+class BitmapMetadataCache {
+    private static final int MAX_MEMORY_ENTRIES = 512;
+    private static final long MAX_DISK_SIZE = 1024L * 1024L;
+
+    LruCache<String, BitmapMetadata> memory = new LruCache<String, BitmapMetadata>(MAX_MEMORY_ENTRIES);
+    FileCache disk;
+
+    public BitmapMetadataCache(File directory) {
+        disk = new FileCache(directory, MAX_DISK_SIZE, true);
+    }
+
+    public BitmapMetadata get(String key) {
+        if (key == null)
+            return null;
+        BitmapMetadata ret;
+        synchronized (this) {
+            ret = memory.get(key);
+        }
+        if (ret != null)
+            return ret;
+
+        try {
+            if (!disk.exists(key))
+                return null;
+            ret = BitmapMetadata.deserialize(StreamUtility.readFile(disk.getFile(key)));
+        }
+        catch (Exception e) {
+            ret = null;
+        }
+        if (ret == null)
+            return null;
+
+        synchronized (this) {
+            memory.put(key, ret);
+        }
+        return ret;
+    }
+
+    public void put(String key, BitmapMetadata metadata) {
+        if (key == null || metadata == null)
+            return;
+        String serialized = metadata.serialize();
+        synchronized (this) {
+            BitmapMetadata existing = memory.put(key, metadata);
+            // avoid rewriting unchanged metadata on every load
+            if (existing != null && serialized.equals(existing.serialize()))
+                return;
+        }
+
+        File tempFile = disk.getTempFile();
+        try {
+            StreamUtility.writeFile(tempFile, serialized);
+            disk.commitTempFiles(key, tempFile);
+        }
+        catch (Exception e) {
+        }
+        finally {
+            tempFile.delete();
+        }
+    }
+
+    public void remove(String key) {
+        synchronized (this) {
+            memory.remove(key);
+        }
+        disk.remove(key);
+    }
+}
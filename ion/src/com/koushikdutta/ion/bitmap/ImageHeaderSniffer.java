@@ -0,0 +1,360 @@
+package com.koushikdutta.ion.bitmap;
+
+import com.koushikdutta.async.ByteBufferList;
+import com.koushikdutta.async.util.StreamUtility;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Pure java parser for JPEG, PNG, GIF, WebP and BMP headers.
+ * Determines the dimensions, mime type and EXIF orientation of an image from
+ * the first few KB of data, without BitmapFactory.
+ */
+public class ImageHeaderSniffer {
+    /**
+     * The most bytes that will be examined. JPEG EXIF segments may be up to 64KB,
+     * and precede the frame header.
+     */
+    public static final int MAX_HEADER_SIZE = 128 * 1024;
+
+    // mime types as reported by BitmapFactory.Options.outMimeType
+    public static final String MIME_JPEG = "image/jpeg";
+    public static final String MIME_PNG = "image/png";
+    public static final String MIME_GIF = "image/gif";
+    public static final String MIME_WEBP = "image/webp";
+    public static final String MIME_BMP = "image/bmp";
+
+    static final int FAILED = -1;
+    static final int NEED_MORE = 0;
+    static final int OK = 1;
+
+    private static class Result {
+        int width;
+        int height;
+        String mimeType;
+        int orientation;
+
+        BitmapMetadata toMetadata() {
+            return new BitmapMetadata(width, height, mimeType, orientation);
+        }
+    }
+
+    /**
+     * Sniff the header of the given bytes.
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return The metadata, or null if the format is unknown or more data is needed.
+     */
+    public static BitmapMetadata sniff(byte[] bytes, int offset, int length) {
+        Result result = new Result();
+        if (sniff(bytes, offset, length, result) != OK)
+            return null;
+        return result.toMetadata();
+    }
+
+    /**
+     * Check whether the given bytes are enough to determine the header, or if the
+     * format is not recognized at all.
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return true if no amount of additional data will help.
+     */
+    public static boolean isComplete(byte[] bytes, int offset, int length) {
+        return sniff(bytes, offset, length, new Result()) != NEED_MORE;
+    }
+
+    /**
+     * Sniff the header of the data buffered in the given ByteBufferList.
+     * The list is not consumed.
+     * @param list
+     * @return The metadata, or null if the format is unknown or more data is needed.
+     */
+    public static BitmapMetadata sniff(ByteBufferList list) {
+        ByteBuffer[] buffers = list.getAllArray();
+        try {
+            int length = 0;
+            for (ByteBuffer b: buffers) {
+                length += b.remaining();
+            }
+            length = Math.min(length, MAX_HEADER_SIZE);
+            byte[] bytes = new byte[length];
+            int copied = 0;
+            for (ByteBuffer b: buffers) {
+                if (copied == length)
+                    break;
+                ByteBuffer dup = b.duplicate();
+                int count = Math.min(dup.remaining(), length - copied);
+                dup.get(bytes, copied, count);
+                copied += count;
+            }
+            return sniff(bytes, 0, length);
+        }
+        finally {
+            list.addAll(buffers);
+        }
+    }
+
+    /**
+     * Sniff the header of the given stream. Up to MAX_HEADER_SIZE bytes are consumed.
+     * @param in
+     * @return The metadata, or null if the format is unknown.
+     * @throws IOException
+     */
+    public static BitmapMetadata sniff(InputStream in) throws IOException {
+        Result result = new Result();
+        byte[] bytes = new byte[4096];
+        int length = 0;
+        while (true) {
+            int read = in.read(bytes, length, bytes.length - length);
+            if (read < 0)
+                break;
+            length += read;
+            int status = sniff(bytes, 0, length, result);
+            if (status == OK)
+                return result.toMetadata();
+            if (status == FAILED)
+                return null;
+            if (length == bytes.length) {
+                if (length >= MAX_HEADER_SIZE)
+                    return null;
+                byte[] grown = new byte[Math.min(MAX_HEADER_SIZE, bytes.length * 2)];
+                System.arraycopy(bytes, 0, grown, 0, length);
+                bytes = grown;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sniff the header of the given file.
+     * @param file
+     * @return The metadata, or null if the format is unknown.
+     * @throws IOException
+     */
+    public static BitmapMetadata sniff(File file) throws IOException {
+        FileInputStream fin = new FileInputStream(file);
+        try {
+            return sniff(fin);
+        }
+        finally {
+            StreamUtility.closeQuietly(fin);
+        }
+    }
+
+    static int sniff(byte[] b, int offset, int length, Result result) {
+        if (length < 2)
+            return NEED_MORE;
+        int b0 = b[offset] & 0xFF;
+        int b1 = b[offset + 1] & 0xFF;
+        if (b0 == 0xFF && b1 == 0xD8)
+            return sniffJpeg(b, offset, length, result);
+        if (b0 == 0x89 && b1 == 'P')
+            return sniffPng(b, offset, length, result);
+        if (b0 == 'G' && b1 == 'I')
+            return sniffGif(b, offset, length, result);
+        if (b0 == 'R' && b1 == 'I')
+            return sniffWebp(b, offset, length, result);
+        if (b0 == 'B' && b1 == 'M')
+            return sniffBmp(b, offset, length, result);
+        return FAILED;
+    }
+
+    private static boolean matches(byte[] b, int offset, String signature) {
+        for (int i = 0; i < signature.length(); i++) {
+            if ((b[offset + i] & 0xFF) != signature.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static int sniffPng(byte[] b, int offset, int length, Result result) {
+        // signature, IHDR chunk length and type, width, height
+        if (length < 24)
+            return NEED_MORE;
+        if (!matches(b, offset, "\u0089PNG\r\n\u001a\n") || !matches(b, offset + 12, "IHDR"))
+            return FAILED;
+        result.width = pack(b, offset + 16, 4, false);
+        result.height = pack(b, offset + 20, 4, false);
+        result.mimeType = MIME_PNG;
+        return OK;
+    }
+
+    private static int sniffGif(byte[] b, int offset, int length, Result result) {
+        if (length < 10)
+            return NEED_MORE;
+        if (!matches(b, offset, "GIF87a") && !matches(b, offset, "GIF89a"))
+            return FAILED;
+        result.width = pack(b, offset + 6, 2, true);
+        result.height = pack(b, offset + 8, 2, true);
+        result.mimeType = MIME_GIF;
+        return OK;
+    }
+
+    private static int sniffBmp(byte[] b, int offset, int length, Result result) {
+        if (length < 26)
+            return NEED_MORE;
+        int headerSize = pack(b, offset + 14, 4, true);
+        if (headerSize == 12) {
+            // BITMAPCOREHEADER
+            result.width = pack(b, offset + 18, 2, true);
+            result.height = pack(b, offset + 20, 2, true);
+        }
+        else if (headerSize >= 40) {
+            // BITMAPINFOHEADER and later. negative height means top down.
+            result.width = Math.abs(pack(b, offset + 18, 4, true));
+            result.height = Math.abs(pack(b, offset + 22, 4, true));
+        }
+        else {
+            return FAILED;
+        }
+        result.mimeType = MIME_BMP;
+        return OK;
+    }
+
+    private static int sniffWebp(byte[] b, int offset, int length, Result result) {
+        if (length < 16)
+            return NEED_MORE;
+        if (!matches(b, offset, "RIFF") || !matches(b, offset + 8, "WEBP"))
+            return FAILED;
+        result.mimeType = MIME_WEBP;
+        int chunk = offset + 12;
+        if (matches(b, chunk, "VP8 ")) {
+            // lossy: frame tag (3), start code 9d 01 2a (3), 14 bit width and height
+            if (length < 30)
+                return NEED_MORE;
+            if ((b[chunk + 11] & 0xFF) != 0x9d || (b[chunk + 12] & 0xFF) != 0x01 || (b[chunk + 13] & 0xFF) != 0x2a)
+                return FAILED;
+            result.width = pack(b, chunk + 14, 2, true) & 0x3FFF;
+            result.height = pack(b, chunk + 16, 2, true) & 0x3FFF;
+            return OK;
+        }
+        if (matches(b, chunk, "VP8L")) {
+            // lossless: signature 0x2f, then 14 bits of width - 1, 14 bits of height - 1
+            if (length < 25)
+                return NEED_MORE;
+            if ((b[chunk + 8] & 0xFF) != 0x2f)
+                return FAILED;
+            int bits = pack(b, chunk + 9, 4, true);
+            result.width = (bits & 0x3FFF) + 1;
+            result.height = ((bits >> 14) & 0x3FFF) + 1;
+            return OK;
+        }
+        if (matches(b, chunk, "VP8X")) {
+            // extended: flags (4), 24 bit canvas width - 1, 24 bit canvas height - 1
+            if (length < 30)
+                return NEED_MORE;
+            result.width = pack(b, chunk + 12, 3, true) + 1;
+            result.height = pack(b, chunk + 15, 3, true) + 1;
+            return OK;
+        }
+        return FAILED;
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        // SOF0-SOF15, excluding DHT (C4), JPG (C8) and DAC (CC)
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static int sniffJpeg(byte[] b, int offset, int length, Result result) {
+        int last = offset + length;
+        int pos = offset + 2;
+        result.mimeType = MIME_JPEG;
+        while (true) {
+            if (pos + 4 > last)
+                return NEED_MORE;
+            if ((b[pos] & 0xFF) != 0xFF)
+                return FAILED;
+            int marker = b[pos + 1] & 0xFF;
+            // padding
+            if (marker == 0xFF) {
+                pos++;
+                continue;
+            }
+            pos += 2;
+            // markers without a payload
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7))
+                continue;
+            // EOI or SOS before a frame header
+            if (marker == 0xD9 || marker == 0xDA)
+                return FAILED;
+
+            int segmentLength = pack(b, pos, 2, false);
+            if (segmentLength < 2)
+                return FAILED;
+
+            if (isStartOfFrame(marker)) {
+                // length (2), precision (1), height (2), width (2)
+                if (pos + 7 > last)
+                    return NEED_MORE;
+                result.height = pack(b, pos + 3, 2, false);
+                result.width = pack(b, pos + 5, 2, false);
+                return OK;
+            }
+
+            if (pos + segmentLength > last)
+                return NEED_MORE;
+
+            if (marker == 0xE1 && segmentLength >= 8 && matches(b, pos + 2, "Exif") && pack(b, pos + 6, 2, false) == 0)
+                result.orientation = getExifOrientation(b, pos + 8, segmentLength - 8);
+
+            pos += segmentLength;
+        }
+    }
+
+    // JEITA CP-3451 Exif Version 2.2, IFD0 orientation tag
+    private static int getExifOrientation(byte[] b, int offset, int length) {
+        if (length <= 8)
+            return 0;
+        int tag = pack(b, offset, 4, false);
+        if (tag != 0x49492A00 && tag != 0x4D4D002A)
+            return 0;
+        boolean littleEndian = tag == 0x49492A00;
+
+        int count = pack(b, offset + 4, 4, littleEndian) + 2;
+        if (count < 10 || count > length)
+            return 0;
+        offset += count;
+        length -= count;
+
+        count = pack(b, offset - 2, 2, littleEndian);
+        while (count-- > 0 && length >= 12) {
+            tag = pack(b, offset, 2, littleEndian);
+            if (tag == 0x0112) {
+                switch (pack(b, offset + 8, 2, littleEndian)) {
+                    case 3:
+                        return 180;
+                    case 6:
+                        return 90;
+                    case 8:
+                        return 270;
+                    default:
+                        return 0;
+                }
+            }
+            offset += 12;
+            length -= 12;
+        }
+        return 0;
+    }
+
+    private static int pack(byte[] bytes, int offset, int length, boolean littleEndian) {
+        int step = 1;
+        if (littleEndian) {
+            offset += length - 1;
+            step = -1;
+        }
+
+        int value = 0;
+        while (length-- > 0) {
+            value = (value << 8) | (bytes[offset] & 0xFF);
+            offset += step;
+        }
+        return value;
+    }
+}
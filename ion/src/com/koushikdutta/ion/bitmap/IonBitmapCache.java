@@ -24,6 +24,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 
 /**
  * Created by koush on 5/23/13.
@@ -36,6 +37,10 @@ public class IonBitmapCache {
     LruBitmapCache cache;
     Ion ion;
     long errorCacheDuration = DEFAULT_ERROR_CACHE_DURATION;
+    BitmapMemoryBudget budget;
+    // guarded by the budget, which reads them from whichever thread trims
+    double budgetWeight = 1;
+    long lastAccess;
 
     public long getErrorCacheDuration() {
         return errorCacheDuration;
@@ -54,6 +59,196 @@ public class IonBitmapCache {
         final AssetManager mgr = context.getAssets();
         resources = new Resources(mgr, metrics, context.getResources().getConfiguration());
         cache = new LruBitmapCache(getHeapSize(context) / 7);
+        budget = BitmapMemoryBudget.getDefault(context);
+        budget.register(this);
+        metadataCache = new BitmapMetadataCache(new File(context.getCacheDir(), ion.getName() + "-metadata"));
+    }
+
+    BitmapMetadataCache metadataCache;
+    private static final int MAX_POOLED_TILES = 16;
+    TileBitmapPool tilePool = new TileBitmapPool(MAX_POOLED_TILES);
+
+    /**
+     * Get the cached original size, mime type and orientation of the image
+     * with the given download key, if it has been loaded before.
+     * This may read from disk.
+     * @param key
+     * @return
+     */
+    public BitmapMetadata getMetadata(String key) {
+        return metadataCache.get(key);
+    }
+
+    public void putMetadata(String key, BitmapMetadata metadata) {
+        metadataCache.put(key, metadata);
+    }
+
+    public void removeMetadata(String key) {
+        metadataCache.remove(key);
+    }
+
+    /**
+     * Get the version of a local file, which changes when the file is modified.
+     * @param file
+     * @return
+     */
+    public static String getFileVersion(File file) {
+        return file.lastModified() + ":" + file.length();
+    }
+
+    /**
+     * Get the metadata of the given local file, using the cached metadata if the file
+     * has not changed since it was cached. Otherwise, the file header is probed and cached.
+     * @param key
+     * @param file
+     * @return
+     * @throws BitmapDecodeException
+     */
+    public BitmapMetadata getMetadata(String key, File file) throws BitmapDecodeException {
+        return getMetadata(key, file, getFileVersion(file));
+    }
+
+    /**
+     * Get the metadata of the given file, using the cached metadata if it was read from the
+     * same version of the source. Otherwise, the file header is probed and cached.
+     * @param key
+     * @param file
+     * @param version Identifies the content of the file, such as a response validator for
+     * a file that was downloaded
+     * @return
+     * @throws BitmapDecodeException
+     */
+    public BitmapMetadata getMetadata(String key, File file, String version) throws BitmapDecodeException {
+        // the version is stored as a line of the serialized metadata
+        version = version.replace('\n', ' ');
+        BitmapMetadata ret = metadataCache.get(key);
+        if (ret != null && version.equals(ret.sourceVersion))
+            return ret;
+
+        try {
+            ret = ImageHeaderSniffer.sniff(file);
+        }
+        catch (IOException e) {
+            ret = null;
+        }
+        if (ret == null) {
+            // unknown format, or the header is unusually large. let BitmapFactory figure it out.
+            BitmapFactory.Options o = new BitmapFactory.Options();
+            o.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(file.toString(), o);
+            if (o.outWidth < 0 || o.outHeight < 0)
+                throw new BitmapDecodeException(o.outWidth, o.outHeight);
+            ret = new BitmapMetadata(o.outWidth, o.outHeight, o.outMimeType, getOrientation(file));
+        }
+        ret.sourceVersion = version;
+        metadataCache.put(key, ret);
+        return ret;
+    }
+
+    /**
+     * Probe the metadata of the given stream and update the cache. A stream has no version
+     * to check the cached metadata against, so this is always probed. The stream is consumed.
+     * @param key
+     * @param in
+     * @return
+     * @throws BitmapDecodeException
+     */
+    public BitmapMetadata probeMetadata(String key, InputStream in) throws BitmapDecodeException {
+        BitmapMetadata ret;
+        MarkableInputStream markable = new MarkableInputStream(in);
+        try {
+            markable.mark(ImageHeaderSniffer.MAX_HEADER_SIZE);
+            ret = ImageHeaderSniffer.sniff(markable);
+            if (ret == null) {
+                // unknown format, or the header is unusually large. let BitmapFactory figure it out.
+                markable.reset();
+                markable.mark(50000);
+                int rotation = getOrientation(markable);
+                markable.reset();
+                BitmapFactory.Options o = new BitmapFactory.Options();
+                o.inJustDecodeBounds = true;
+                BitmapFactory.decodeStream(markable, null, o);
+                if (o.outWidth < 0 || o.outHeight < 0)
+                    throw new BitmapDecodeException(o.outWidth, o.outHeight);
+                ret = new BitmapMetadata(o.outWidth, o.outHeight, o.outMimeType, rotation);
+            }
+        }
+        catch (IOException e) {
+            throw new BitmapDecodeException(-1, -1);
+        }
+        metadataCache.put(key, ret);
+        return ret;
+    }
+
+    /**
+     * Probe the metadata of the given encoded bytes and update the cache.
+     * The bytes are already in memory, so this is always probed rather than risking
+     * stale metadata from a response that has since changed.
+     * @param key
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return
+     * @throws BitmapDecodeException
+     */
+    public BitmapMetadata probeMetadata(String key, byte[] bytes, int offset, int length) throws BitmapDecodeException {
+        BitmapMetadata ret = ImageHeaderSniffer.sniff(bytes, offset, length);
+        if (ret == null) {
+            BitmapFactory.Options o = new BitmapFactory.Options();
+            o.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(bytes, offset, length, o);
+            if (o.outWidth < 0 || o.outHeight < 0)
+                throw new BitmapDecodeException(o.outWidth, o.outHeight);
+            ret = new BitmapMetadata(o.outWidth, o.outHeight, o.outMimeType, Exif.getOrientation(bytes, offset, length));
+        }
+        metadataCache.put(key, ret);
+        return ret;
+    }
+
+    /**
+     * Get the process wide memory budget shared by the bitmap caches of all Ion instances.
+     * @return
+     */
+    public BitmapMemoryBudget getBudget() {
+        return budget;
+    }
+
+    public double getBudgetWeight() {
+        return budget.getWeight(this);
+    }
+
+    /**
+     * Set the weight of this cache relative to the bitmap caches of other Ion instances.
+     * A cache with twice the weight is allocated twice the share of the shared budget.
+     * @param budgetWeight
+     */
+    public void setBudgetWeight(double budgetWeight) {
+        budget.setWeight(this, budgetWeight);
+    }
+
+    /**
+     * Evict all bitmaps, and remove this cache from the shared budget.
+     * The cache should not be used afterwards.
+     */
+    public void release() {
+        budget.unregister(this);
+        clear();
+    }
+
+    /**
+     * Get the number of bytes of the shared budget that are allocated to this cache.
+     * @return
+     */
+    public long getBudgetAllocation() {
+        return budget.getAllocation(this);
+    }
+
+    /**
+     * Get the number of bytes currently held by this cache.
+     * @return
+     */
+    public long size() {
+        return cache.size();
     }
 
     public BitmapInfo remove(String key) {
@@ -62,6 +257,31 @@ public class IonBitmapCache {
 
     public void clear() {
         cache.evictAllBitmapInfo();
+        tilePool.clear();
+    }
+
+    /**
+     * Reuse the bitmap of a deep zoom tile for later tile decodes. This may only be called
+     * once nothing can draw the bitmap anymore, such as a decode that was cancelled before
+     * it was handed out. Evicted tiles are not reused, since a drawable may still hold them.
+     * @param bitmap
+     */
+    public void recycleTile(Bitmap bitmap) {
+        tilePool.put(bitmap);
+    }
+
+    /**
+     * Remove a deep zoom tile from the cache, which also removes it from its tile map,
+     * so it can no longer be handed out. Its bitmap may then be passed to
+     * {@link #recycleTile(Bitmap)} once nothing draws it.
+     * @param tile
+     * @return true if the tile was removed, or false if the cache holds another instance
+     */
+    public boolean removeTile(BitmapInfo tile) {
+        if (cache.get(tile.key) != tile)
+            return false;
+        cache.removeBitmapInfo(tile.key);
+        return true;
     }
 
     double heapRatio = 1d / 7d;
@@ -78,7 +298,9 @@ public class IonBitmapCache {
         int maxSize = (int)(getHeapSize(ion.getContext()) * heapRatio);
         if (maxSize != cache.maxSize())
             cache.setMaxSize(maxSize);
+        budget.touch(this);
         cache.put(info.key, info);
+        budget.trim();
     }
 
     public BitmapInfo get(String key) {
@@ -87,6 +309,8 @@ public class IonBitmapCache {
 
         // see if this thing has an immediate cache hit
         BitmapInfo ret = cache.getBitmapInfo(key);
+        if (ret != null)
+            budget.touch(this);
         if (ret == null || ret.bitmaps != null)
             return ret;
 
@@ -100,8 +324,30 @@ public class IonBitmapCache {
         return null;
     }
 
+    /**
+     * Mark a bitmap that was found without a cache lookup, such as a deep zoom
+     * tile held in a TileMap, as recently used.
+     * @param info
+     */
+    public void touch(BitmapInfo info) {
+        cache.get(info.key);
+        budget.touch(this);
+    }
+
+    /**
+     * Mark several bitmaps as recently used, touching the memory budget only once.
+     * @param infos
+     */
+    public void touch(List<BitmapInfo> infos) {
+        for (BitmapInfo info: infos) {
+            cache.get(info.key);
+        }
+        budget.touch(this);
+    }
+
     public void dump() {
         Log.i("IonBitmapCache", "bitmap cache: " + cache.size());
+        Log.i("IonBitmapCache", "budget allocation: " + getBudgetAllocation() + "/" + budget.getMaxSize());
         Log.i("IonBitmapCache", "freeMemory: " + Runtime.getRuntime().freeMemory());
     }
 
@@ -132,6 +378,14 @@ public class IonBitmapCache {
         return ret;
     }
 
+    public BitmapFactory.Options prepareBitmapOptions(BitmapMetadata metadata, int minx, int miny) throws BitmapDecodeException {
+        BitmapFactory.Options o = new BitmapFactory.Options();
+        o.outWidth = metadata.width;
+        o.outHeight = metadata.height;
+        o.outMimeType = metadata.mimeType;
+        return prepareBitmapOptions(o, minx, miny);
+    }
+
     public BitmapFactory.Options prepareBitmapOptions(File file, int minx, int miny) throws BitmapDecodeException {
         BitmapFactory.Options o = new BitmapFactory.Options();
         o.inJustDecodeBounds = true;
@@ -172,12 +426,15 @@ public class IonBitmapCache {
     }
 
     public static Bitmap loadBitmap(byte[] bytes, int offset, int length, BitmapFactory.Options o) {
+        return loadBitmap(bytes, offset, length, o, Exif.getOrientation(bytes, offset, length));
+    }
+
+    public static Bitmap loadBitmap(byte[] bytes, int offset, int length, BitmapFactory.Options o, int rotation) {
         assert Thread.currentThread() != Looper.getMainLooper().getThread();
 
         Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, offset, length, o);
         if (bitmap == null)
             return null;
-        int rotation = Exif.getOrientation(bytes, offset, length);
         return getRotatedBitmap(bitmap, rotation);
     }
 
@@ -188,6 +445,78 @@ public class IonBitmapCache {
         return decoder.decodeRegion(sourceRect, options);
     }
 
+    /**
+     * Decode a region using one of the decoders in the pool, so regions of the
+     * same image may be decoded in parallel. Full size tiles are decoded into
+     * the bitmap of a recycled tile when possible.
+     * @param decoders
+     * @param sourceRect
+     * @param inSampleSize
+     * @return
+     * @throws IOException
+     */
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+    public Bitmap loadRegion(RegionDecoderPool decoders, Rect sourceRect, int inSampleSize) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = inSampleSize;
+        // so the tile can be recycled later
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)
+            options.inMutable = true;
+
+        // region decoders support inBitmap on jelly bean, but only of the exact output size
+        // prior to kitkat. so only pooled bitmaps of the exact output size are reused.
+        boolean reuse = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+            && sourceRect.width() % inSampleSize == 0 && sourceRect.height() % inSampleSize == 0;
+        Bitmap pooled = null;
+        if (reuse) {
+            pooled = tilePool.get(sourceRect.width() / inSampleSize, sourceRect.height() / inSampleSize, options.inPreferredConfig);
+            options.inBitmap = pooled;
+        }
+
+        BitmapRegionDecoder decoder = decoders.acquire();
+        try {
+            return decoder.decodeRegion(sourceRect, options);
+        }
+        catch (IllegalArgumentException e) {
+            // the pooled bitmap was not compatible
+            if (pooled == null)
+                throw e;
+            options.inBitmap = null;
+            return decoder.decodeRegion(sourceRect, options);
+        }
+        finally {
+            decoders.release(decoder);
+        }
+    }
+
+    /**
+     * Decode a pre-scaled tile file, reusing the bitmap of a recycled
+     * tile of the expected size when possible.
+     * @param file
+     * @param width The expected width of the tile
+     * @param height The expected height of the tile
+     * @return
+     */
+    public Bitmap loadTile(File file, int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        Bitmap pooled = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            options.inMutable = true;
+            pooled = tilePool.get(width, height, options.inPreferredConfig);
+            options.inBitmap = pooled;
+        }
+
+        try {
+            return BitmapFactory.decodeFile(file.toString(), options);
+        }
+        catch (IllegalArgumentException e) {
+            if (pooled == null)
+                throw e;
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(file.toString(), options);
+        }
+    }
+
     public static Bitmap loadBitmap(Resources res, int id, BitmapFactory.Options o) {
         assert Thread.currentThread() != Looper.getMainLooper().getThread();
 
@@ -208,41 +537,55 @@ public class IonBitmapCache {
         return getRotatedBitmap(bitmap, rotation);
     }
 
-    public static Bitmap loadBitmap(InputStream stream, BitmapFactory.Options o) throws IOException {
-        assert Thread.currentThread() != Looper.getMainLooper().getThread();
-
-        int rotation;
-        MarkableInputStream in = new MarkableInputStream(stream);
-        in.mark(50000);
+    private static int getOrientation(InputStream in) {
         try {
             byte[] bytes = new byte[50000];
             int length = in.read(bytes);
-            rotation = Exif.getOrientation(bytes, 0, length);
+            return Exif.getOrientation(bytes, 0, length);
         }
         catch (Exception e) {
-            rotation = 0;
+            return 0;
         }
-        in.reset();
-
-        Bitmap bitmap = BitmapFactory.decodeStream(in, null, o);
-        return getRotatedBitmap(bitmap, rotation);
     }
 
-    public static Bitmap loadBitmap(File file, BitmapFactory.Options o) {
-        assert Thread.currentThread() != Looper.getMainLooper().getThread();
-
-        int rotation;
+    private static int getOrientation(File file) {
         FileInputStream fin = null;
         try {
             fin = new FileInputStream(file);
-            byte[] bytes = new byte[50000];
-            int length = fin.read(bytes);
-            rotation = Exif.getOrientation(bytes, 0, length);
+            return getOrientation(fin);
         }
         catch (Exception e) {
-            rotation = 0;
+            return 0;
         }
-        StreamUtility.closeQuietly(fin);
+        finally {
+            StreamUtility.closeQuietly(fin);
+        }
+    }
+
+    public static Bitmap loadBitmap(InputStream stream, BitmapFactory.Options o) throws IOException {
+        assert Thread.currentThread() != Looper.getMainLooper().getThread();
+
+        MarkableInputStream in = new MarkableInputStream(stream);
+        in.mark(50000);
+        int rotation = getOrientation(in);
+        in.reset();
+
+        return loadBitmap(in, o, rotation);
+    }
+
+    public static Bitmap loadBitmap(InputStream stream, BitmapFactory.Options o, int rotation) {
+        assert Thread.currentThread() != Looper.getMainLooper().getThread();
+
+        Bitmap bitmap = BitmapFactory.decodeStream(stream, null, o);
+        return getRotatedBitmap(bitmap, rotation);
+    }
+
+    public static Bitmap loadBitmap(File file, BitmapFactory.Options o) {
+        return loadBitmap(file, o, getOrientation(file));
+    }
+
+    public static Bitmap loadBitmap(File file, BitmapFactory.Options o, int rotation) {
+        assert Thread.currentThread() != Looper.getMainLooper().getThread();
 
         Bitmap bitmap = BitmapFactory.decodeFile(file.toString(), o);
         return getRotatedBitmap(bitmap, rotation);
@@ -0,0 +1,153 @@
+package com.koushikdutta.ion.bitmap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Counts the start of scan markers of a JPEG as it arrives, by walking the marker segments
+ * from the SOI. Segments are skipped by their length, so markers inside them, such as
+ * those of the thumbnail embedded in an EXIF segment, are not counted. The entropy coded
+ * data that follows a scan has any 0xFF bytes stuffed, so the next top level marker
+ * is found by scanning for an 0xFF that is not followed by 0x00 or a restart marker.
+ */
+public class JpegScanCounter {
+    private static final int SOI_FF = 0;
+    private static final int SOI_D8 = 1;
+    // expecting the 0xFF of the next marker
+    private static final int MARKER_FF = 2;
+    private static final int MARKER = 3;
+    private static final int LENGTH_HI = 4;
+    private static final int LENGTH_LO = 5;
+    private static final int SKIP = 6;
+    private static final int ENTROPY = 7;
+    private static final int ENTROPY_FF = 8;
+    // not a JPEG, a malformed JPEG, or past the EOI
+    private static final int STOPPED = 9;
+
+    private static final int SOS = 0xDA;
+    private static final int EOI = 0xD9;
+
+    private int state = SOI_FF;
+    private int marker;
+    private int length;
+    private int remaining;
+    private int scans;
+    private boolean jpeg = true;
+
+    /**
+     * @return The number of start of scan markers seen so far.
+     */
+    public int getScanCount() {
+        return scans;
+    }
+
+    /**
+     * @return false if the data did not start with a JPEG SOI marker.
+     */
+    public boolean isJpeg() {
+        return jpeg;
+    }
+
+    /**
+     * @return true once nothing more will be counted, because the data is not a JPEG,
+     * is malformed, or has ended.
+     */
+    public boolean isStopped() {
+        return state == STOPPED;
+    }
+
+    /**
+     * Count the markers in the remaining bytes of the buffer. The position of the buffer
+     * is not changed.
+     * @param b
+     */
+    public void feed(ByteBuffer b) {
+        int i = b.position();
+        int limit = b.limit();
+        while (i < limit && state != STOPPED) {
+            if (state == SKIP) {
+                int skip = Math.min(remaining, limit - i);
+                remaining -= skip;
+                i += skip;
+                if (remaining == 0)
+                    state = marker == SOS ? ENTROPY : MARKER_FF;
+                continue;
+            }
+            int value = b.get(i++) & 0xFF;
+            switch (state) {
+                case SOI_FF:
+                    if (value != 0xFF)
+                        stop(false);
+                    else
+                        state = SOI_D8;
+                    break;
+                case SOI_D8:
+                    if (value != 0xD8)
+                        stop(false);
+                    else
+                        state = MARKER_FF;
+                    break;
+                case MARKER_FF:
+                    if (value != 0xFF)
+                        stop(true);
+                    else
+                        state = MARKER;
+                    break;
+                case MARKER:
+                    onMarker(value);
+                    break;
+                case LENGTH_HI:
+                    length = value << 8;
+                    state = LENGTH_LO;
+                    break;
+                case LENGTH_LO:
+                    length |= value;
+                    // the length includes its own two bytes
+                    if (length < 2) {
+                        stop(true);
+                        break;
+                    }
+                    if (marker == SOS)
+                        scans++;
+                    remaining = length - 2;
+                    state = SKIP;
+                    if (remaining == 0)
+                        state = marker == SOS ? ENTROPY : MARKER_FF;
+                    break;
+                case ENTROPY:
+                    if (value == 0xFF)
+                        state = ENTROPY_FF;
+                    break;
+                case ENTROPY_FF:
+                    // stuffed 0xFF, restart marker, or fill byte
+                    if (value == 0x00 || (value >= 0xD0 && value <= 0xD7))
+                        state = ENTROPY;
+                    else if (value != 0xFF)
+                        onMarker(value);
+                    break;
+            }
+        }
+    }
+
+    private void onMarker(int value) {
+        if (value == 0xFF) {
+            // fill byte
+            return;
+        }
+        if (value == EOI) {
+            stop(true);
+            return;
+        }
+        // markers without a segment
+        if (value == 0x01 || (value >= 0xD0 && value <= 0xD8)) {
+            state = MARKER_FF;
+            return;
+        }
+        marker = value;
+        state = LENGTH_HI;
+    }
+
+    private void stop(boolean jpeg) {
+        this.jpeg = jpeg;
+        state = STOPPED;
+    }
+}
@@ -43,8 +43,14 @@ class LruBitmapCache extends LruCache<String, BitmapInfo> {
     protected void entryRemoved(boolean evicted, String key, BitmapInfo oldValue, BitmapInfo newValue) {
         super.entryRemoved(evicted, key, oldValue, newValue);
 
+        // the tile map only holds tiles that are in the cache
+        if (oldValue.tileOwner != null)
+            oldValue.tileOwner.remove(oldValue.tileKey, oldValue);
+
+        if (!evicted)
+            return;
+
         // on eviction, put the bitmaps into the soft ref table
-        if (evicted)
-            soft.put(key, oldValue);
+        soft.put(key, oldValue);
     }
 }
@@ -0,0 +1,120 @@
+package com.koushikdutta.ion.bitmap;
+
+import android.annotation.TargetApi;
+import android.graphics.BitmapRegionDecoder;
+import android.os.Build;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * BitmapRegionDecoder serializes decodeRegion calls on a single instance.
+ * This pool lazily opens additional decoders on the same file when several bitmap
+ * executor threads decode regions of the same image at once.
+ * The number of decoders is bounded by the core count, and by an estimate of the
+ * memory each decoder holds, which is roughly proportional to the file size.
+ */
+@TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+public class RegionDecoderPool {
+    // the portion of the heap that may be spent on the decoders of one image
+    private static final int HEAP_DIVISOR = 32;
+
+    File file;
+    BitmapRegionDecoder primary;
+    int maxDecoders;
+    int decoders;
+    ArrayList<BitmapRegionDecoder> idle = new ArrayList<BitmapRegionDecoder>();
+
+    /**
+     * @param decoder An open decoder, which becomes the first decoder in the pool.
+     * @param file The file the decoder was opened on. If null, no additional decoders are opened.
+     */
+    public RegionDecoderPool(BitmapRegionDecoder decoder, File file) {
+        this.file = file;
+        primary = decoder;
+        idle.add(decoder);
+        decoders = 1;
+        maxDecoders = getDefaultMaxDecoders(file);
+    }
+
+    /**
+     * Create a pool that opens its first decoder on demand, such as when the tiles of
+     * the image are usually served from a tile pyramid.
+     * @param file
+     */
+    public RegionDecoderPool(File file) {
+        this.file = file;
+        maxDecoders = getDefaultMaxDecoders(file);
+    }
+
+    private static int getDefaultMaxDecoders(File file) {
+        if (file == null)
+            return 1;
+        int cores = Runtime.getRuntime().availableProcessors();
+        long length = Math.max(1, file.length());
+        long byMemory = Runtime.getRuntime().maxMemory() / HEAP_DIVISOR / length;
+        return (int)Math.max(1, Math.min(cores, byMemory));
+    }
+
+    public synchronized int getMaxDecoders() {
+        return maxDecoders;
+    }
+
+    public synchronized void setMaxDecoders(int maxDecoders) {
+        if (file == null)
+            return;
+        this.maxDecoders = Math.max(1, maxDecoders);
+        notifyAll();
+    }
+
+    public synchronized int getDecoderCount() {
+        return decoders;
+    }
+
+    /**
+     * Get a decoder for exclusive use, opening another one if all the decoders are
+     * busy and the pool is not full. Otherwise, block until one is released.
+     * @return
+     * @throws IOException
+     */
+    public BitmapRegionDecoder acquire() throws IOException {
+        synchronized (this) {
+            while (idle.isEmpty() && decoders >= maxDecoders) {
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    throw new IOException("interrupted while waiting for a region decoder");
+                }
+            }
+            if (!idle.isEmpty())
+                return idle.remove(idle.size() - 1);
+            decoders++;
+        }
+
+        // open the new decoder outside the lock, it may take a while
+        try {
+            return BitmapRegionDecoder.newInstance(file.toString(), false);
+        }
+        catch (IOException e) {
+            synchronized (this) {
+                decoders--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    public synchronized void release(BitmapRegionDecoder decoder) {
+        // the first decoder is also referenced by the BitmapInfo, never close it
+        if (decoders > maxDecoders && decoder != primary) {
+            decoders--;
+            decoder.recycle();
+        }
+        else {
+            idle.add(decoder);
+        }
+        notifyAll();
+    }
+}
@@ -0,0 +1,48 @@
+package com.koushikdutta.ion.bitmap;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+
+/**
+ * Deep zoom tiles are almost all the same size, so the bitmaps of tiles that can no longer
+ * be drawn are kept here and decoded into again via inBitmap, rather than allocating a
+ * new bitmap per tile. See IonBitmapCache.recycleTile.
+ */
+class TileBitmapPool {
+    ArrayList<Bitmap> bitmaps = new ArrayList<Bitmap>();
+    int maxBitmaps;
+
+    public TileBitmapPool(int maxBitmaps) {
+        this.maxBitmaps = maxBitmaps;
+    }
+
+    /**
+     * Take a bitmap of exactly the given dimensions and config out of the pool.
+     * @return The bitmap, or null if there is no match.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        for (int i = bitmaps.size() - 1; i >= 0; i--) {
+            Bitmap bitmap = bitmaps.get(i);
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config)
+                return bitmaps.remove(i);
+        }
+        return null;
+    }
+
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable())
+            return;
+        if (bitmaps.size() >= maxBitmaps)
+            bitmaps.remove(0);
+        bitmaps.add(bitmap);
+    }
+
+    public synchronized void clear() {
+        bitmaps.clear();
+    }
+
+    public synchronized int size() {
+        return bitmaps.size();
+    }
+}
@@ -0,0 +1,171 @@
+package com.koushikdutta.ion.bitmap;
+
+import java.util.Arrays;
+
+/**
+ * Open addressed hash map of deep zoom tiles, keyed by a long that packs the
+ * zoom level and tile coordinates. Lookups do not allocate, so it is suitable for
+ * use on every frame.
+ */
+public class TileMap<V> {
+    private static final long EMPTY = -1;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    long[] keys;
+    Object[] values;
+    int size;
+
+    public TileMap() {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Pack a tile address into a key. Tile coordinates may be up to 28 bits.
+     * @param level
+     * @param x
+     * @param y
+     * @return
+     */
+    public static long key(int level, int x, int y) {
+        return ((long)level << 56) | ((long)x << 28) | y;
+    }
+
+    public static int getLevel(long key) {
+        return (int)(key >>> 56);
+    }
+
+    public static int getX(long key) {
+        return (int)(key >>> 28) & 0xFFFFFFF;
+    }
+
+    public static int getY(long key) {
+        return (int)key & 0xFFFFFFF;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new Object[capacity];
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h >>> 32) & (keys.length - 1);
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            if (keys[i] == key)
+                return i;
+            if (keys[i] == EMPTY)
+                return -1;
+        }
+    }
+
+    public synchronized V get(long key) {
+        int i = find(key);
+        if (i < 0)
+            return null;
+        return (V)values[i];
+    }
+
+    public synchronized V put(long key, V value) {
+        if ((size + 1) * 4 > keys.length * 3)
+            resize(keys.length * 2);
+        int mask = keys.length - 1;
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V ret = (V)values[i];
+                values[i] = value;
+                return ret;
+            }
+            if (keys[i] == EMPTY) {
+                keys[i] = key;
+                values[i] = value;
+                size++;
+                return null;
+            }
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY)
+                put(oldKeys[i], (V)oldValues[i]);
+        }
+    }
+
+    public synchronized V remove(long key) {
+        int i = find(key);
+        if (i < 0)
+            return null;
+        V ret = (V)values[i];
+        removeSlot(i);
+        return ret;
+    }
+
+    /**
+     * Remove the key only if it is mapped to the given value.
+     * @return true if the value was removed
+     */
+    public synchronized boolean remove(long key, V value) {
+        int i = find(key);
+        if (i < 0 || values[i] != value)
+            return false;
+        removeSlot(i);
+        return true;
+    }
+
+    // backward shift deletion, so probe sequences never need tombstones
+    private void removeSlot(int i) {
+        int mask = keys.length - 1;
+        keys[i] = EMPTY;
+        values[i] = null;
+        size--;
+        for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            int k = slot(keys[j]);
+            boolean inPlace = i <= j ? (i < k && k <= j) : (i < k || k <= j);
+            if (inPlace)
+                continue;
+            keys[i] = keys[j];
+            values[i] = values[j];
+            keys[j] = EMPTY;
+            values[j] = null;
+            i = j;
+        }
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * The number of slots, for iterating with keyAt and valueAt.
+     * The map must not be modified while iterating.
+     */
+    public int capacity() {
+        return keys.length;
+    }
+
+    public long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * @return The value at the given slot, or null if the slot is empty.
+     */
+    public V valueAt(int slot) {
+        return (V)values[slot];
+    }
+}
@@ -61,6 +61,14 @@ public interface BitmapBuilder<B extends BitmapBuilder<?>> {
      */
     public B smartSize(boolean smartSize);
 
+    /**
+     * Set the priority of this load. Loads with a higher priority are started and
+     * decoded before loads with a lower priority. The default priority is 0.
+     * @param priority
+     * @return
+     */
+    public B priority(int priority);
+
     /**
      * Process the bitmap on a background thread.
      * @param postProcess
@@ -4,6 +4,7 @@ import android.graphics.Bitmap;
 
 import com.koushikdutta.async.future.Future;
 import com.koushikdutta.ion.bitmap.BitmapInfo;
+import com.koushikdutta.ion.bitmap.BitmapMetadata;
 import com.koushikdutta.ion.bitmap.LocallyCachedStatus;
 
 /**
@@ -22,6 +23,14 @@ public interface BitmapFutureBuilder {
      */
     public BitmapInfo asCachedBitmap();
 
+    /**
+     * Attempt to retrieve the original size, mime type and orientation of the image
+     * from a previous load. This can be used to size a view before the image arrives.
+     * This may read from disk.
+     * @return
+     */
+    public BitmapMetadata asCachedMetadata();
+
     /**
      * Check whether the Bitmap can be loaded from either the file or memory cache
      * @return
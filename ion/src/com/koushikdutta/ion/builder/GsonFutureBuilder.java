@@ -3,6 +3,7 @@ package com.koushikdutta.ion.builder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.reflect.TypeToken;
+import com.koushikdutta.ion.ElementCallback;
 import com.koushikdutta.ion.future.ResponseFuture;
 
 /**
@@ -35,4 +36,40 @@ public interface GsonFutureBuilder {
      * @return
      */
     public <T> ResponseFuture<T> as(TypeToken<T> token);
+
+    /**
+     * Deserialize the elements of a JSON array response using Gson, and deliver them
+     * in batches of 100 as they are parsed. The whole array is never held in memory at once.
+     * See {@link #asJsonArrayStream(TypeToken, int, ElementCallback)}.
+     * @param clazz
+     * @param callback
+     * @param <T>
+     * @return
+     */
+    public <T> ResponseFuture<Integer> asJsonArrayStream(Class<T> clazz, ElementCallback<T> callback);
+
+    /**
+     * Deserialize the elements of a JSON array response using Gson, and deliver them
+     * in batches as they are parsed.
+     * See {@link #asJsonArrayStream(TypeToken, int, ElementCallback)}.
+     * @param clazz
+     * @param batchSize
+     * @param callback
+     * @param <T>
+     * @return
+     */
+    public <T> ResponseFuture<Integer> asJsonArrayStream(Class<T> clazz, int batchSize, ElementCallback<T> callback);
+
+    /**
+     * Deserialize the elements of a JSON array response using Gson, and deliver them
+     * in batches as they are parsed. The batches are delivered on the same thread as the result.
+     * Parsing stays at most one batch ahead of delivery, and the download is paused while
+     * parsing is behind, so memory use is bounded no matter how long the array is.
+     * @param token
+     * @param batchSize The number of elements in each batch, except the last
+     * @param callback
+     * @param <T>
+     * @return The number of elements in the array, once all of them have been delivered
+     */
+    public <T> ResponseFuture<Integer> asJsonArrayStream(TypeToken<T> token, int batchSize, ElementCallback<T> callback);
 }
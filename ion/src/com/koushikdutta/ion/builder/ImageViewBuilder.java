@@ -94,6 +94,33 @@ public interface ImageViewBuilder<I extends ImageViewBuilder<?>> {
      */
     public I deepZoom();
 
+    /**
+     * Show a low resolution preview while a large image downloads. The preview is decoded
+     * once the given number of bytes, or the first scan of a progressive JPEG, has arrived,
+     * and is replaced when the download completes.
+     * Previews are not shown for transformed or resized images.
+     * @param byteThreshold
+     * @return
+     */
+    public I progressivePreview(int byteThreshold);
+
+    /**
+     * Show a low resolution preview while a large image downloads, using the
+     * default byte threshold.
+     * @return
+     */
+    public I progressivePreview();
+
+    /**
+     * Wait until the ImageView has been measured before loading, and decode the image
+     * for the size of the view, rather than the size of the screen. This is useful for
+     * views that match their parent or use weights, and do not have a size in their layout parameters.
+     * An image that is already in the memory cache is still shown immediately.
+     * This has no effect if the image is resized or deep zoomed.
+     * @return
+     */
+    public I measureBeforeLoad();
+
     /**
      * Crossfade the new image with the existing image.
      * @return
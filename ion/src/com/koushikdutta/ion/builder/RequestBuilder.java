@@ -128,6 +128,40 @@ public interface RequestBuilder<F, R extends RequestBuilder, M extends Multipart
      */
     public R noCache();
 
+    /**
+     * Share a single fetch and parse with identical requests that are in flight at the same time.
+     * Requests are identical when their method, URL and headers match, as do their cache,
+     * redirect, timeout and proxy settings.
+     * Only GET requests without a body, progress or header callbacks are coalesced, and only when
+     * the result is a JsonObject, JsonArray, String, byte array or deserialized object.
+     * Each request still gets its own future, and the shared fetch is only cancelled
+     * once every coalesced request has been cancelled.
+     * Every coalesced request receives the same result instance, and that instance is mutable:
+     * a JsonObject, JsonArray, byte array or deserialized object modified by one caller is seen
+     * modified by all of the others. Copy the result before modifying it.
+     * @return
+     */
+    public R coalesce();
+
+    /**
+     * Set the priority of this request. The decoding of requests with a higher priority
+     * runs before that of requests with a lower priority. The default priority is 0,
+     * and background work, like prefetching, runs at -10.
+     * @param priority
+     * @return
+     */
+    public R priority(int priority);
+
+    /**
+     * Parse the response on the thread that read it, rather than on the compute pool.
+     * By default, JSON, String and Document responses are parsed on the compute pool,
+     * so large bodies do not stall the network I/O of other requests. JSON bodies that are
+     * large, or of unknown length, are parsed as they arrive. Parsing inline saves a thread hop,
+     * which is only worthwhile for tiny bodies.
+     * @return
+     */
+    public R parseInline();
+
     /**
      * Set whether this request will follow redirects
      */
@@ -0,0 +1,83 @@
+package com.koushikdutta.ion.gson;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.koushikdutta.async.ByteBufferList;
+import com.koushikdutta.async.DataEmitter;
+import com.koushikdutta.async.DataSink;
+import com.koushikdutta.async.callback.CompletedCallback;
+import com.koushikdutta.async.future.Future;
+import com.koushikdutta.async.future.TransformFuture;
+import com.koushikdutta.async.parser.AsyncParser;
+import com.koushikdutta.async.parser.ByteBufferListParser;
+import com.koushikdutta.async.stream.ByteBufferListInputStream;
+import com.koushikdutta.ion.ElementCallback;
+import com.koushikdutta.ion.StreamingParser;
+import com.koushikdutta.ion.TextDecoder;
+
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+
+/**
+ * Deserializes the elements of a JSON array one at a time, and hands them to the callback in
+ * batches, so the whole array is never in memory at once.
+ * The result is the number of elements in the array.
+ * The callback is invoked on the parsing thread.
+ */
+public class GsonArrayStreamParser<T> implements AsyncParser<Integer>, StreamingParser<Integer> {
+    Gson gson;
+    Type type;
+    int batchSize;
+    ElementCallback<T> callback;
+
+    public GsonArrayStreamParser(Gson gson, Type type, int batchSize, ElementCallback<T> callback) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        this.gson = gson;
+        this.type = type;
+        this.batchSize = batchSize;
+        this.callback = callback;
+    }
+
+    @Override
+    public Future<Integer> parse(DataEmitter emitter) {
+        final String charset = emitter.charset();
+        return new ByteBufferListParser().parse(emitter)
+        .then(new TransformFuture<Integer, ByteBufferList>() {
+            @Override
+            protected void transform(ByteBufferList result) throws Exception {
+                setComplete(parse(new ByteBufferListInputStream(result), charset));
+            }
+        });
+    }
+
+    @Override
+    public Integer parse(InputStream stream, String charset) throws Exception {
+        JsonReader json = new JsonReader(TextDecoder.newReader(stream, charset));
+        // resolve the adapter once, rather than once per element
+        TypeAdapter<T> adapter = (TypeAdapter<T>)gson.getAdapter(TypeToken.get(type));
+        int count = 0;
+        ArrayList<T> batch = new ArrayList<T>(batchSize);
+        json.beginArray();
+        while (json.hasNext()) {
+            batch.add(GsonSerializer.read(adapter, json));
+            count++;
+            if (batch.size() == batchSize) {
+                callback.onElements(batch);
+                batch = new ArrayList<T>(batchSize);
+            }
+        }
+        json.endArray();
+        if (!batch.isEmpty())
+            callback.onElements(batch);
+        return count;
+    }
+
+    @Override
+    public void write(DataSink sink, Integer value, CompletedCallback completed) {
+        throw new AssertionError("not implemented");
+    }
+}
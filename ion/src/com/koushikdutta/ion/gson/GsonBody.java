@@ -10,19 +10,47 @@ import com.koushikdutta.async.future.FutureCallback;
 import com.koushikdutta.async.http.AsyncHttpRequest;
 import com.koushikdutta.async.http.body.AsyncHttpRequestBody;
 import com.koushikdutta.async.http.body.JSONObjectBody;
+import com.koushikdutta.ion.Ion;
 
-import java.io.ByteArrayOutputStream;
-import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.Executor;
 
 public class GsonBody<T extends JsonElement> implements AsyncHttpRequestBody<T> {
     byte[] mBodyBytes;
+    boolean measured;
     T json;
     Gson gson;
+    Executor executor = Ion.getIoExecutorService();
     public GsonBody(Gson gson, T json) {
         this.json = json;
         this.gson = gson;
     }
 
+    /**
+     * Set the executor that serializes bodies too large to be serialized up front.
+     * @param executor
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    private final JsonStreams.Source source = new JsonStreams.Source() {
+        @Override
+        public void toJson(Writer out) {
+            gson.toJson(json, out);
+        }
+    };
+
+    // small bodies are serialized up front, and sent with a content length.
+    // larger bodies are sent chunked, as they are serialized.
+    private byte[] getBodyBytes() {
+        if (!measured) {
+            mBodyBytes = JsonStreams.toBytes(source, JsonStreams.FIXED_LENGTH_LIMIT);
+            measured = true;
+        }
+        return mBodyBytes;
+    }
+
     @Override
     public void parse(DataEmitter emitter, final CompletedCallback completed) {
         throw new AssertionError("not implemented");
@@ -30,13 +58,11 @@ public class GsonBody<T extends JsonElement> implements AsyncHttpRequestBody<T>
 
     @Override
     public void write(AsyncHttpRequest request, DataSink sink, final CompletedCallback completed) {
-        if (mBodyBytes == null) {
-            ByteArrayOutputStream bout = new ByteArrayOutputStream();
-            OutputStreamWriter out = new OutputStreamWriter(bout);
-            gson.toJson(json, out);
-            mBodyBytes = bout.toByteArray();
-        }
-        Util.writeAll(sink, mBodyBytes, completed);
+        byte[] bytes = getBodyBytes();
+        if (bytes != null)
+            Util.writeAll(sink, bytes, completed);
+        else
+            JsonStreams.write(executor, sink, source, completed);
     }
 
     @Override
@@ -51,9 +77,10 @@ public class GsonBody<T extends JsonElement> implements AsyncHttpRequestBody<T>
 
     @Override
     public int length() {
-        if (mBodyBytes == null)
-            mBodyBytes = json.toString().getBytes();
-        return mBodyBytes.length;
+        byte[] bytes = getBodyBytes();
+        if (bytes == null)
+            return -1;
+        return bytes.length;
     }
 
     public static final String CONTENT_TYPE = JSONObjectBody.CONTENT_TYPE;
@@ -14,15 +14,15 @@ import com.koushikdutta.async.parser.AsyncParser;
 import com.koushikdutta.async.parser.ByteBufferListParser;
 import com.koushikdutta.async.parser.StringParser;
 import com.koushikdutta.async.stream.ByteBufferListInputStream;
-import com.koushikdutta.async.util.Charsets;
+import com.koushikdutta.ion.StreamingParser;
+import com.koushikdutta.ion.TextDecoder;
 
-import java.io.InputStreamReader;
-import java.nio.charset.Charset;
+import java.io.InputStream;
 
 /**
  * Created by koush on 5/27/13.
  */
-public abstract class GsonParser<T extends JsonElement> implements AsyncParser<T> {
+public abstract class GsonParser<T extends JsonElement> implements AsyncParser<T>, StreamingParser<T> {
     Class<? extends JsonElement> clazz;
     public GsonParser(Class<? extends T> clazz) {
         this.clazz = clazz;
@@ -30,22 +30,27 @@ public abstract class GsonParser<T extends JsonElement> implements AsyncParser<T
 
     @Override
     public Future<T> parse(DataEmitter emitter) {
-        final String charset = emitter.charset() == null ? Charset.defaultCharset().name() : emitter.charset();
+        final String charset = emitter.charset();
         return new ByteBufferListParser().parse(emitter)
         .then(new TransformFuture<T, ByteBufferList>() {
             @Override
             protected void transform(ByteBufferList result) throws Exception {
-                JsonParser parser = new JsonParser();
-                JsonElement parsed = parser.parse(new JsonReader(new InputStreamReader(new ByteBufferListInputStream(result), charset)));
-                if (parsed.isJsonNull() || parsed.isJsonPrimitive())
-                    throw new JsonParseException("unable to parse json");
-                if (!clazz.isInstance(parsed))
-                    throw new ClassCastException(parsed.getClass().getCanonicalName() + " can not be casted to " + clazz.getCanonicalName());
-                setComplete(null, (T)parsed);
+                setComplete(null, parse(new ByteBufferListInputStream(result), charset));
             }
         });
     }
 
+    @Override
+    public T parse(InputStream stream, String charset) throws Exception {
+        JsonParser parser = new JsonParser();
+        JsonElement parsed = parser.parse(new JsonReader(TextDecoder.newReader(stream, charset)));
+        if (parsed.isJsonNull() || parsed.isJsonPrimitive())
+            throw new JsonParseException("unable to parse json");
+        if (!clazz.isInstance(parsed))
+            throw new ClassCastException(parsed.getClass().getCanonicalName() + " can not be casted to " + clazz.getCanonicalName());
+        return (T)parsed;
+    }
+
     @Override
     public void write(DataSink sink, T value, CompletedCallback completed) {
         new StringParser().write(sink, value.toString(), completed);
@@ -1,30 +1,39 @@
 package com.koushikdutta.ion.gson;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
 import com.google.gson.reflect.TypeToken;
 import com.google.gson.stream.JsonReader;
 import com.koushikdutta.async.ByteBufferList;
 import com.koushikdutta.async.DataEmitter;
 import com.koushikdutta.async.DataSink;
-import com.koushikdutta.async.Util;
 import com.koushikdutta.async.callback.CompletedCallback;
 import com.koushikdutta.async.future.Future;
 import com.koushikdutta.async.future.TransformFuture;
 import com.koushikdutta.async.parser.AsyncParser;
 import com.koushikdutta.async.parser.ByteBufferListParser;
 import com.koushikdutta.async.stream.ByteBufferListInputStream;
+import com.koushikdutta.ion.Ion;
+import com.koushikdutta.ion.StreamingParser;
+import com.koushikdutta.ion.TextDecoder;
 
-import java.io.ByteArrayOutputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
 import java.lang.reflect.Type;
+import java.util.concurrent.Executor;
 
 /**
  * Created by koush on 6/1/13.
  */
-public class GsonSerializer<T> implements AsyncParser<T> {
+public class GsonSerializer<T> implements AsyncParser<T>, StreamingParser<T> {
     Gson gson;
     Type type;
+    // resolved on first use, and kept, since a serializer may be reused across requests
+    TypeAdapter<T> adapter;
+    Executor executor = Ion.getIoExecutorService();
     public GsonSerializer(Gson gson, Class<T> clazz) {
         this.gson = gson;
         type = clazz;
@@ -33,30 +42,75 @@ public class GsonSerializer<T> implements AsyncParser<T> {
         this.gson = gson;
         type = token.getType();
     }
+    public GsonSerializer(Gson gson, Type type) {
+        this.gson = gson;
+        this.type = type;
+    }
     @Override
     public Future<T> parse(DataEmitter emitter) {
+        final String charset = emitter.charset();
         return new ByteBufferListParser().parse(emitter)
         .then(new TransformFuture<T, ByteBufferList>() {
             @Override
             protected void transform(ByteBufferList result) throws Exception {
-                ByteBufferListInputStream bin = new ByteBufferListInputStream(result);
-                T ret = (T)gson.fromJson(new JsonReader(new InputStreamReader(bin)), type);
-                setComplete(ret);
+                setComplete(parse(new ByteBufferListInputStream(result), charset));
             }
         });
     }
 
     @Override
-    public void write(DataSink sink, T pojo, CompletedCallback completed) {
-        ByteArrayOutputStream bout = new ByteArrayOutputStream();
-        OutputStreamWriter out = new OutputStreamWriter(bout);
-        gson.toJson(pojo, type, out);
+    public T parse(InputStream stream, String charset) throws Exception {
+        if (adapter == null)
+            adapter = (TypeAdapter<T>)gson.getAdapter(TypeToken.get(type));
+        return read(adapter, new JsonReader(TextDecoder.newReader(stream, charset)));
+    }
+
+    /**
+     * Read a value with the given adapter, the same as {@link Gson#fromJson(JsonReader, Type)} would,
+     * without looking up the adapter again.
+     */
+    static <T> T read(TypeAdapter<T> adapter, JsonReader reader) throws JsonSyntaxException {
+        boolean isEmpty = true;
+        boolean lenient = reader.isLenient();
+        reader.setLenient(true);
         try {
-            out.flush();
+            reader.peek();
+            isEmpty = false;
+            return adapter.read(reader);
+        }
+        catch (EOFException e) {
+            // an empty document is read as null
+            if (isEmpty)
+                return null;
+            throw new JsonSyntaxException(e);
+        }
+        catch (IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        }
+        catch (IOException e) {
+            throw new JsonSyntaxException(e);
         }
-        catch (final Exception e) {
-            throw new AssertionError(e);
+        finally {
+            reader.setLenient(lenient);
         }
-        Util.writeAll(sink, bout.toByteArray(), completed);
+    }
+
+    /**
+     * Set the executor that serializes values written by this serializer.
+     * @param executor
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void write(DataSink sink, final T pojo, CompletedCallback completed) {
+        // serialized off of the calling thread, and written as it is serialized
+        JsonStreams.write(executor, sink, new JsonStreams.Source() {
+            @Override
+            public void toJson(Writer out) {
+                gson.toJson(pojo, type, out);
+            }
+        }, completed);
     }
 }
@@ -0,0 +1,23 @@
+package com.koushikdutta.ion.gson;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class whose Gson TypeAdapter is generated at compile time by the ion-processor
+ * annotation processor, rather than built with reflection at runtime.
+ * The generated adapters are registered with the Gson of every Ion instance; see
+ * {@link JsonModels#getTypeAdapterFactory()} to register them with a custom Gson.
+ * <p>
+ * Fields are bound the same way Gson binds them: every field of the class and its superclasses
+ * that is not static or transient, named by its {@link com.google.gson.annotations.SerializedName}
+ * if present. Annotated classes must have an accessible no argument constructor, and their fields
+ * must not be private or final. Field values are written with the adapter of their declared type.
+ * Naming policies, exclusion strategies and versioning configured on the Gson are not applied.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface JsonModel {
+}
@@ -0,0 +1,39 @@
+package com.koushikdutta.ion.gson;
+
+import com.google.gson.TypeAdapterFactory;
+
+/**
+ * Finds the TypeAdapters generated for {@link JsonModel} classes by the ion-processor
+ * annotation processor. The processor writes a single factory for all of the models of an
+ * application, so it should only be run on the application module.
+ * When using ProGuard, keep the no argument constructor of the factory:
+ * <pre>
+ * -keep class com.koushikdutta.ion.gson.GeneratedTypeAdapters { &lt;init&gt;(); }
+ * </pre>
+ */
+public class JsonModels {
+    // must match the name written by JsonModelProcessor
+    static final String FACTORY = "com.koushikdutta.ion.gson.GeneratedTypeAdapters";
+
+    private static boolean loaded;
+    private static TypeAdapterFactory factory;
+
+    /**
+     * @return The factory of the generated TypeAdapters, or null if the processor was not run.
+     */
+    public static synchronized TypeAdapterFactory getTypeAdapterFactory() {
+        if (loaded)
+            return factory;
+        loaded = true;
+        try {
+            factory = (TypeAdapterFactory)Class.forName(FACTORY).newInstance();
+        }
+        catch (ClassNotFoundException e) {
+            // no models were annotated
+        }
+        catch (Exception e) {
+            throw new IllegalStateException("Unable to create " + FACTORY + ": " + e);
+        }
+        return factory;
+    }
+}
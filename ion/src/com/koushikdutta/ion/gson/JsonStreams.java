@@ -0,0 +1,96 @@
+package com.koushikdutta.ion.gson;
+
+import com.google.gson.JsonIOException;
+import com.koushikdutta.async.DataSink;
+import com.koushikdutta.async.callback.CompletedCallback;
+import com.koushikdutta.ion.DataSinkOutputStream;
+import com.koushikdutta.ion.TextDecoder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.Executor;
+
+/**
+ * Writes JSON to a DataSink as it is serialized, without holding the whole body in memory.
+ * JSON is always written as UTF-8.
+ */
+class JsonStreams {
+    // bodies up to this size are serialized up front, so they can be sent with a content length
+    static final int FIXED_LENGTH_LIMIT = 16 * 1024;
+    static final int BUFFER_SIZE = 8 * 1024;
+    // the most that is serialized ahead of the connection
+    static final int CAPACITY = 64 * 1024;
+
+    interface Source {
+        void toJson(Writer out);
+    }
+
+    private static class LimitExceeded extends IOException {
+    }
+
+    private static class LimitedOutputStream extends ByteArrayOutputStream {
+        int limit;
+        LimitedOutputStream(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public synchronized void write(byte[] buffer, int offset, int len) {
+            if (count + len > limit)
+                throw new JsonIOException(new LimitExceeded());
+            super.write(buffer, offset, len);
+        }
+
+        @Override
+        public synchronized void write(int oneByte) {
+            if (count + 1 > limit)
+                throw new JsonIOException(new LimitExceeded());
+            super.write(oneByte);
+        }
+    }
+
+    /**
+     * Serialize the source into memory, if it fits within the given limit.
+     * @return The serialized bytes, or null if the source is larger than the limit.
+     */
+    static byte[] toBytes(Source source, int limit) {
+        LimitedOutputStream bout = new LimitedOutputStream(limit);
+        OutputStreamWriter out = new OutputStreamWriter(bout, TextDecoder.DEFAULT_CHARSET);
+        try {
+            source.toJson(out);
+            out.flush();
+        }
+        catch (JsonIOException e) {
+            if (e.getCause() instanceof LimitExceeded)
+                return null;
+            throw e;
+        }
+        catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+        return bout.toByteArray();
+    }
+
+    /**
+     * Serialize the source on the given executor, writing it to the sink as it is serialized.
+     * The completed callback is invoked on the thread of the sink.
+     */
+    static void write(Executor executor, final DataSink sink, final Source source, final CompletedCallback completed) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                DataSinkOutputStream stream = new DataSinkOutputStream(sink, BUFFER_SIZE, CAPACITY, completed);
+                Writer out = new OutputStreamWriter(stream, TextDecoder.DEFAULT_CHARSET);
+                try {
+                    source.toJson(out);
+                    out.close();
+                }
+                catch (Exception e) {
+                    stream.abort(e);
+                }
+            }
+        });
+    }
+}
@@ -8,10 +8,11 @@ import com.koushikdutta.async.Util;
 import com.koushikdutta.async.callback.CompletedCallback;
 import com.koushikdutta.async.http.AsyncHttpRequest;
 import com.koushikdutta.async.http.body.AsyncHttpRequestBody;
+import com.koushikdutta.ion.Ion;
 
-import java.io.ByteArrayOutputStream;
-import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Type;
+import java.util.concurrent.Executor;
 
 /**
  * Created by koush on 6/5/13.
@@ -19,8 +20,10 @@ import java.lang.reflect.Type;
 public class PojoBody<T> implements AsyncHttpRequestBody<T> {
     T pojo;
     byte[] bodyBytes;
+    boolean measured;
     Type type;
     Gson gson;
+    Executor executor = Ion.getIoExecutorService();
     public PojoBody(Gson gson, T pojo, TypeToken<T> token) {
         this.pojo = pojo;
         if (token != null)
@@ -28,29 +31,41 @@ public class PojoBody<T> implements AsyncHttpRequestBody<T> {
         this.gson = gson;
     }
 
-    byte[] getBodyBytes() {
-        if (bodyBytes != null)
-            return bodyBytes;
-        ByteArrayOutputStream bout = new ByteArrayOutputStream();
-        OutputStreamWriter out = new OutputStreamWriter(bout);
-        if (type == null)
-            gson.toJson(pojo, out);
-        else
-            gson.toJson(pojo, type, out);
-        try {
-            out.flush();
-            bout.flush();
+    /**
+     * Set the executor that serializes bodies too large to be serialized up front.
+     * @param executor
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    private final JsonStreams.Source source = new JsonStreams.Source() {
+        @Override
+        public void toJson(Writer out) {
+            if (type == null)
+                gson.toJson(pojo, out);
+            else
+                gson.toJson(pojo, type, out);
         }
-        catch (Exception e) {
+    };
 
+    // small bodies are serialized up front, and sent with a content length.
+    // larger bodies are sent chunked, as they are serialized.
+    byte[] getBodyBytes() {
+        if (!measured) {
+            bodyBytes = JsonStreams.toBytes(source, JsonStreams.FIXED_LENGTH_LIMIT);
+            measured = true;
         }
-        bodyBytes = bout.toByteArray();
         return bodyBytes;
     }
 
     @Override
     public void write(AsyncHttpRequest request, DataSink sink, final CompletedCallback completed) {
-        Util.writeAll(sink, getBodyBytes(), completed);
+        byte[] bytes = getBodyBytes();
+        if (bytes != null)
+            Util.writeAll(sink, bytes, completed);
+        else
+            JsonStreams.write(executor, sink, source, completed);
     }
 
     @Override
@@ -70,7 +85,10 @@ public class PojoBody<T> implements AsyncHttpRequestBody<T> {
 
     @Override
     public int length() {
-        return getBodyBytes().length;
+        byte[] bytes = getBodyBytes();
+        if (bytes == null)
+            return -1;
+        return bytes.length;
     }
 
     @Override
@@ -16,6 +16,7 @@ import com.koushikdutta.async.util.StreamUtility;
 import com.koushikdutta.ion.Ion;
 import com.koushikdutta.ion.Loader;
 import com.koushikdutta.ion.bitmap.BitmapInfo;
+import com.koushikdutta.ion.bitmap.BitmapMetadata;
 import com.koushikdutta.ion.bitmap.IonBitmapCache;
 import com.koushikdutta.ion.gif.GifAction;
 import com.koushikdutta.ion.gif.GifDecoder;
@@ -41,7 +42,9 @@ public class FileLoader extends StreamLoader {
         final SimpleFuture<BitmapInfo> ret = new SimpleFuture<BitmapInfo>();
 
 //        Log.d("FileLoader", "Loading file bitmap " + uri + " " + resizeWidth + "," + resizeHeight);
-        Ion.getBitmapLoadExecutorService().execute(new Runnable() {
+        // reading the header of the file blocks, so do that on the io threads,
+        // and leave the decode threads free for decoding.
+        ion.configure().getIoExecutorService().execute(new Runnable() {
             @Override
             public void run() {
                 if (ret.isCancelled()) {
@@ -49,30 +52,17 @@ public class FileLoader extends StreamLoader {
                     return;
                 }
                 try {
-                    File file = new File(URI.create(uri));
-                    BitmapFactory.Options options = ion.getBitmapCache().prepareBitmapOptions(file, resizeWidth, resizeHeight);
-                    Point size = new Point(options.outWidth, options.outHeight);
-                    BitmapInfo info;
-                    if (animateGif && TextUtils.equals("image/gif", options.outMimeType)) {
-                        FileInputStream fin = new FileInputStream(file);
-                        try {
-                            info = loadGif(key, size, fin, options);
+                    final File file = new File(URI.create(uri));
+                    final BitmapMetadata metadata = ion.getBitmapCache().getMetadata(key, file);
+                    final BitmapFactory.Options options = ion.getBitmapCache().prepareBitmapOptions(metadata, resizeWidth, resizeHeight);
+                    ion.configure().getBitmapLoadExecutorService().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (ret.isCancelled())
+                                return;
+                            decode(key, file, metadata, options, animateGif, ret);
                         }
-                        finally {
-                            StreamUtility.closeQuietly(fin);
-                        }
-                    }
-                    else {
-                        Bitmap bitmap = IonBitmapCache.loadBitmap(file, options);
-                        if (bitmap == null)
-                            throw new Exception("Bitmap failed to load");
-                        info = new BitmapInfo(key, options.outMimeType, new Bitmap[] { bitmap }, size);
-                    }
-                    info.loadedFrom =  Loader.LoaderEmitter.LOADED_FROM_CACHE;
-                    ret.setComplete(info);
-                }
-                catch (OutOfMemoryError e) {
-                    ret.setComplete(new Exception(e), null);
+                    });
                 }
                 catch (Exception e) {
                     ret.setComplete(e);
@@ -83,12 +73,42 @@ public class FileLoader extends StreamLoader {
         return ret;
     }
 
+    private void decode(String key, File file, BitmapMetadata metadata, BitmapFactory.Options options, boolean animateGif, SimpleFuture<BitmapInfo> ret) {
+        try {
+            Point size = metadata.getOriginalSize();
+            BitmapInfo info;
+            if (animateGif && TextUtils.equals("image/gif", options.outMimeType)) {
+                FileInputStream fin = new FileInputStream(file);
+                try {
+                    info = loadGif(key, size, fin, options);
+                }
+                finally {
+                    StreamUtility.closeQuietly(fin);
+                }
+            }
+            else {
+                Bitmap bitmap = IonBitmapCache.loadBitmap(file, options, metadata.orientation);
+                if (bitmap == null)
+                    throw new Exception("Bitmap failed to load");
+                info = new BitmapInfo(key, options.outMimeType, new Bitmap[] { bitmap }, size);
+            }
+            info.loadedFrom =  Loader.LoaderEmitter.LOADED_FROM_CACHE;
+            ret.setComplete(info);
+        }
+        catch (OutOfMemoryError e) {
+            ret.setComplete(new Exception(e), null);
+        }
+        catch (Exception e) {
+            ret.setComplete(e);
+        }
+    }
+
     @Override
     public Future<InputStream> load(final Ion ion, final AsyncHttpRequest request) {
         if (!request.getUri().getScheme().startsWith("file"))
             return null;
         final SimpleFuture<InputStream> ret = new SimpleFuture<InputStream>();
-        Ion.getIoExecutorService().execute(new Runnable() {
+        ion.configure().getIoExecutorService().execute(new Runnable() {
             @Override
             public void run() {
                 try {
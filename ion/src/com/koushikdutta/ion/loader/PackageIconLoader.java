@@ -25,7 +25,7 @@ public class PackageIconLoader extends SimpleLoader {
             return null;
 
         final SimpleFuture<BitmapInfo> ret = new SimpleFuture<BitmapInfo>();
-        Ion.getBitmapLoadExecutorService().execute(new Runnable() {
+        ion.configure().getBitmapLoadExecutorService().execute(new Runnable() {
             @Override
             public void run() {
                 try {
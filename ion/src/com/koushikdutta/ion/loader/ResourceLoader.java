@@ -69,7 +69,7 @@ public class ResourceLoader extends StreamLoader {
         final SimpleFuture<BitmapInfo> ret = new SimpleFuture<BitmapInfo>();
 
 //        Log.d("FileLoader", "Loading file bitmap " + uri + " " + resizeWidth + "," + resizeHeight);
-        Ion.getBitmapLoadExecutorService().execute(new Runnable() {
+        ion.configure().getBitmapLoadExecutorService().execute(new Runnable() {
             @Override
             public void run() {
                 try {
@@ -13,6 +13,7 @@ import com.koushikdutta.async.util.StreamUtility;
 import com.koushikdutta.ion.Ion;
 import com.koushikdutta.ion.Loader;
 import com.koushikdutta.ion.bitmap.BitmapInfo;
+import com.koushikdutta.ion.bitmap.BitmapMetadata;
 import com.koushikdutta.ion.bitmap.IonBitmapCache;
 import com.koushikdutta.ion.gif.GifAction;
 import com.koushikdutta.ion.gif.GifDecoder;
@@ -51,36 +52,60 @@ public class StreamLoader extends SimpleLoader {
         return null;
     }
 
+    private void decode(String key, InputStream in, BitmapMetadata metadata, BitmapFactory.Options options, boolean animateGif, SimpleFuture<BitmapInfo> ret) {
+        try {
+            Point size = metadata.getOriginalSize();
+            BitmapInfo info;
+            if (animateGif && TextUtils.equals("image/gif", options.outMimeType)) {
+                info = loadGif(key, size, in, options);
+            }
+            else {
+                Bitmap bitmap = IonBitmapCache.loadBitmap(in, options, metadata.orientation);
+                if (bitmap == null)
+                    throw new Exception("Bitmap failed to load");
+                info = new BitmapInfo(key, options.outMimeType, new Bitmap[] { bitmap }, size);
+            }
+            info.loadedFrom =  Loader.LoaderEmitter.LOADED_FROM_CACHE;
+            ret.setComplete(info);
+        }
+        catch (OutOfMemoryError e) {
+            ret.setComplete(new Exception(e), null);
+        }
+        catch (Exception e) {
+            ret.setComplete(e);
+        }
+        finally {
+            StreamUtility.closeQuietly(in);
+        }
+    }
+
     @Override
     public Future<BitmapInfo> loadBitmap(final Context context, final Ion ion, final String key, final String uri, final int resizeWidth, final int resizeHeight, final boolean animateGif) {
         final SimpleFuture<BitmapInfo> ret = new SimpleFuture<BitmapInfo>();
 
 //        Log.d("FileLoader", "Loading file bitmap " + uri + " " + resizeWidth + "," + resizeHeight);
-        Ion.getBitmapLoadExecutorService().execute(new Runnable() {
+        // opening the stream may block on a content provider or on storage, so do that on the
+        // io threads, and hand the opened stream to the decode threads.
+        ion.configure().getIoExecutorService().execute(new Runnable() {
             @Override
             public void run() {
                 InputStream in = null;
                 try {
+                    // content and resources may change behind the same uri, with no way
+                    // to tell, so the header is probed on every load rather than cached.
                     in = getInputStream(context, uri);
-                    BitmapFactory.Options options = ion.getBitmapCache().prepareBitmapOptions(in, resizeWidth, resizeHeight);
+                    final BitmapMetadata found = ion.getBitmapCache().probeMetadata(key, in);
                     StreamUtility.closeQuietly(in);
-                    Point size = new Point(options.outWidth, options.outHeight);
-                    BitmapInfo info;
-                    in = getInputStream(context, uri);
-                    if (animateGif && TextUtils.equals("image/gif", options.outMimeType)) {
-                        info = loadGif(key, size, in, options);
-                    }
-                    else {
-                        Bitmap bitmap = IonBitmapCache.loadBitmap(in, options);
-                        if (bitmap == null)
-                            throw new Exception("Bitmap failed to load");
-                        info = new BitmapInfo(key, options.outMimeType, new Bitmap[] { bitmap }, size);
-                    }
-                    info.loadedFrom =  Loader.LoaderEmitter.LOADED_FROM_CACHE;
-                    ret.setComplete(info);
-                }
-                catch (OutOfMemoryError e) {
-                    ret.setComplete(new Exception(e), null);
+                    final BitmapFactory.Options options = ion.getBitmapCache().prepareBitmapOptions(found, resizeWidth, resizeHeight);
+                    final InputStream stream = in = getInputStream(context, uri);
+                    ion.configure().getBitmapLoadExecutorService().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            decode(key, stream, found, options, animateGif, ret);
+                        }
+                    });
+                    // the decode owns the stream now
+                    in = null;
                 }
                 catch (Exception e) {
                     ret.setComplete(e);
@@ -45,7 +45,7 @@ public class VideoLoader extends SimpleLoader {
             return null;
 
         final SimpleFuture<BitmapInfo> ret = new SimpleFuture<BitmapInfo>();
-        Ion.getBitmapLoadExecutorService().execute(new Runnable() {
+        ion.configure().getBitmapLoadExecutorService().execute(new Runnable() {
             @Override
             public void run() {
                 final File file = new File(URI.create(uri));
@@ -0,0 +1,71 @@
+package com.koushikdutta.ion;
+
+import android.test.AndroidTestCase;
+
+// in the ion package, since LoadAdmission is package private
+public class LoadAdmissionTests extends AndroidTestCase {
+    private DeferredLoadBitmap deferred(String key, int priority) {
+        Ion ion = Ion.getInstance(getContext(), "LoadAdmissionTests");
+        DeferredLoadBitmap ret = new DeferredLoadBitmap(ion, key, null);
+        ret.priority = priority;
+        return ret;
+    }
+
+    public void testCapacity() throws Exception {
+        LoadAdmission admission = new LoadAdmission();
+        int limit = admission.getLimit().getLimit();
+        for (int i = 0; i < limit; i++) {
+            assertTrue(admission.hasCapacity());
+            admission.onStarted();
+        }
+        assertEquals(limit, admission.getActive());
+        assertTrue(admission.shouldDefer());
+        assertFalse(admission.hasCapacity());
+
+        admission.onFinished();
+        assertFalse(admission.shouldDefer());
+        assertTrue(admission.hasCapacity());
+    }
+
+    public void testOrder() throws Exception {
+        LoadAdmission admission = new LoadAdmission();
+        DeferredLoadBitmap first = deferred("first", PriorityRunnable.DEFAULT_PRIORITY);
+        DeferredLoadBitmap background = deferred("background", PriorityRunnable.BACKGROUND_PRIORITY);
+        DeferredLoadBitmap high = deferred("high", 5);
+        DeferredLoadBitmap second = deferred("second", PriorityRunnable.DEFAULT_PRIORITY);
+        admission.defer(first);
+        admission.defer(background);
+        admission.defer(high);
+        admission.defer(second);
+        assertEquals(4, admission.getDeferred());
+
+        // highest priority first, then in the order they were deferred
+        assertSame(high, admission.poll());
+        assertSame(first, admission.poll());
+        assertSame(second, admission.poll());
+        assertSame(background, admission.poll());
+        assertNull(admission.poll());
+    }
+
+    public void testPark() throws Exception {
+        LoadAdmission admission = new LoadAdmission();
+        DeferredLoadBitmap first = deferred("first", PriorityRunnable.DEFAULT_PRIORITY);
+        DeferredLoadBitmap second = deferred("second", PriorityRunnable.DEFAULT_PRIORITY);
+        admission.defer(first);
+        admission.defer(second);
+
+        assertSame(first, admission.poll());
+        admission.park(first);
+        // parked loads are counted, but not polled
+        assertEquals(2, admission.getDeferred());
+        assertSame(second, admission.poll());
+        admission.park(second);
+        assertNull(admission.poll());
+
+        // and keep their place once they are returned to the queue
+        admission.unpark();
+        assertSame(first, admission.poll());
+        assertSame(second, admission.poll());
+        assertEquals(0, admission.getDeferred());
+    }
+}
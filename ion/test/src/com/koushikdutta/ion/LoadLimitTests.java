@@ -0,0 +1,70 @@
+package com.koushikdutta.ion;
+
+import android.test.AndroidTestCase;
+
+// in the ion package, since LoadLimit is package private
+public class LoadLimitTests extends AndroidTestCase {
+    // complete a round of downloads that each took the given time and returned the given bytes
+    private static long round(LoadLimit limit, long start, long latency, long duration, long bytes, int inFlight) {
+        int count = limit.getLimit();
+        for (int i = 0; i < count; i++) {
+            limit.onSample(start, start + latency, start + duration, bytes, inFlight);
+        }
+        return start + duration;
+    }
+
+    public void testInitial() throws Exception {
+        LoadLimit limit = new LoadLimit();
+        assertEquals(LoadLimit.DEFAULT_INITIAL, limit.getLimit());
+        assertEquals(LoadLimit.DEFAULT_MIN, limit.getMinLimit());
+        assertEquals(LoadLimit.DEFAULT_MAX, limit.getMaxLimit());
+    }
+
+    public void testBounds() throws Exception {
+        LoadLimit limit = new LoadLimit();
+        limit.setBounds(1, 3);
+        assertEquals(3, limit.getLimit());
+        limit.setBounds(0, -1);
+        assertEquals(1, limit.getMinLimit());
+        assertEquals(1, limit.getMaxLimit());
+        assertEquals(1, limit.getLimit());
+    }
+
+    public void testDroppedBacksOff() throws Exception {
+        LoadLimit limit = new LoadLimit();
+        for (int i = 0; i < LoadLimit.DEFAULT_INITIAL; i++) {
+            limit.onDropped();
+        }
+        assertEquals((int)(LoadLimit.DEFAULT_INITIAL * 0.75), limit.getLimit());
+    }
+
+    public void testLatencyBacksOff() throws Exception {
+        LoadLimit limit = new LoadLimit();
+        // a fast first round sets the baseline latency
+        long now = round(limit, 0, 10, 1000, 1000, 0);
+        assertEquals(LoadLimit.DEFAULT_INITIAL, limit.getLimit());
+        // then the first byte takes much longer
+        round(limit, now, 500, 1000, 1000, 0);
+        assertEquals((int)(LoadLimit.DEFAULT_INITIAL * 0.75), limit.getLimit());
+    }
+
+    public void testProbe() throws Exception {
+        LoadLimit limit = new LoadLimit();
+        // a saturated round probes one more download
+        long now = round(limit, 0, 10, 1000, 1000, LoadLimit.DEFAULT_INITIAL);
+        assertEquals(LoadLimit.DEFAULT_INITIAL + 1, limit.getLimit());
+        // which is kept, since the throughput improved
+        now = round(limit, now, 10, 1000, 10000, limit.getLimit());
+        assertEquals(LoadLimit.DEFAULT_INITIAL + 2, limit.getLimit());
+        // and given back when it does not
+        round(limit, now, 10, 1000, 100, limit.getLimit());
+        assertEquals(LoadLimit.DEFAULT_INITIAL + 1, limit.getLimit());
+    }
+
+    public void testMax() throws Exception {
+        LoadLimit limit = new LoadLimit();
+        limit.setBounds(1, LoadLimit.DEFAULT_INITIAL);
+        round(limit, 0, 10, 1000, 1000, LoadLimit.DEFAULT_INITIAL);
+        assertEquals(LoadLimit.DEFAULT_INITIAL, limit.getLimit());
+    }
+}
@@ -0,0 +1,134 @@
+package com.koushikdutta.ion.test;
+
+import android.test.AndroidTestCase;
+
+import com.koushikdutta.async.AsyncServer;
+import com.koushikdutta.async.callback.CompletedCallback;
+import com.koushikdutta.async.future.Future;
+import com.koushikdutta.async.http.server.AsyncHttpServer;
+import com.koushikdutta.async.http.server.AsyncHttpServerRequest;
+import com.koushikdutta.async.http.server.AsyncHttpServerResponse;
+import com.koushikdutta.async.http.server.HttpServerRequestCallback;
+import com.koushikdutta.ion.Ion;
+
+import java.util.ArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CoalesceTests extends AndroidTestCase {
+    private static final int PORT = 5566;
+
+    AsyncHttpServer httpServer;
+    AtomicInteger hits = new AtomicInteger();
+    // released as each request reaches the server, and as each connection closes
+    Semaphore received = new Semaphore(0);
+    Semaphore closed = new Semaphore(0);
+    // responses are held until the test sends them, so the requests stay in flight
+    final ArrayList<AsyncHttpServerResponse> held = new ArrayList<AsyncHttpServerResponse>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        httpServer = new AsyncHttpServer();
+        httpServer.get("/", new HttpServerRequestCallback() {
+            @Override
+            public void onRequest(AsyncHttpServerRequest request, AsyncHttpServerResponse response) {
+                hits.incrementAndGet();
+                response.getSocket().setClosedCallback(new CompletedCallback() {
+                    @Override
+                    public void onCompleted(Exception ex) {
+                        closed.release();
+                    }
+                });
+                synchronized (held) {
+                    held.add(response);
+                }
+                received.release();
+            }
+        });
+        httpServer.listen(AsyncServer.getDefault(), PORT);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        httpServer.stop();
+    }
+
+    private void respond(final String body) {
+        final ArrayList<AsyncHttpServerResponse> responses;
+        synchronized (held) {
+            responses = new ArrayList<AsyncHttpServerResponse>(held);
+            held.clear();
+        }
+        AsyncServer.getDefault().post(new Runnable() {
+            @Override
+            public void run() {
+                for (AsyncHttpServerResponse response: responses) {
+                    response.send(body);
+                }
+            }
+        });
+    }
+
+    private Future<String> load(String test) {
+        return Ion.with(getContext())
+        .load("http://localhost:" + PORT + "/?test=" + test)
+        .coalesce()
+        .asString();
+    }
+
+    public void testSingleFetch() throws Exception {
+        Future<String> first = load("single");
+        Future<String> second = load("single");
+        assertTrue(received.tryAcquire(5000, TimeUnit.MILLISECONDS));
+        respond("hello");
+        assertEquals("hello", first.get(5000, TimeUnit.MILLISECONDS));
+        assertEquals("hello", second.get(5000, TimeUnit.MILLISECONDS));
+        assertEquals(1, hits.get());
+    }
+
+    public void testNoCache() throws Exception {
+        Future<String> first = load("nocache");
+        // a request that skips the cache does not share the fetch of one that does not
+        Future<String> second = Ion.with(getContext())
+        .load("http://localhost:" + PORT + "/?test=nocache")
+        .noCache()
+        .coalesce()
+        .asString();
+        assertTrue(received.tryAcquire(2, 5000, TimeUnit.MILLISECONDS));
+        respond("hello");
+        assertEquals("hello", first.get(5000, TimeUnit.MILLISECONDS));
+        assertEquals("hello", second.get(5000, TimeUnit.MILLISECONDS));
+        assertEquals(2, hits.get());
+    }
+
+    public void testCancelOne() throws Exception {
+        Future<String> first = load("cancelone");
+        Future<String> second = load("cancelone");
+        assertTrue(received.tryAcquire(5000, TimeUnit.MILLISECONDS));
+        first.cancel();
+        respond("hello");
+        assertEquals("hello", second.get(5000, TimeUnit.MILLISECONDS));
+        assertTrue(first.isCancelled());
+        assertEquals(1, hits.get());
+    }
+
+    public void testCancelAll() throws Exception {
+        Future<String> first = load("cancelall");
+        Future<String> second = load("cancelall");
+        assertTrue(received.tryAcquire(5000, TimeUnit.MILLISECONDS));
+        first.cancel();
+        second.cancel();
+        // the shared fetch is cancelled, which closes its connection
+        assertTrue(closed.tryAcquire(5000, TimeUnit.MILLISECONDS));
+
+        // and a later request does not join it
+        Future<String> third = load("cancelall");
+        assertTrue(received.tryAcquire(5000, TimeUnit.MILLISECONDS));
+        respond("hello");
+        assertEquals("hello", third.get(5000, TimeUnit.MILLISECONDS));
+        assertEquals(2, hits.get());
+    }
+}
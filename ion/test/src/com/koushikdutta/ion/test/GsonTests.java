@@ -2,24 +2,37 @@ package com.koushikdutta.ion.test;
 
 import android.test.AndroidTestCase;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
 import com.google.gson.reflect.TypeToken;
 import com.koushikdutta.async.AsyncServer;
+import com.koushikdutta.async.AsyncServerSocket;
+import com.koushikdutta.async.AsyncSocket;
 import com.koushikdutta.async.ByteBufferList;
 import com.koushikdutta.async.FilteredDataEmitter;
+import com.koushikdutta.async.callback.ListenCallback;
 import com.koushikdutta.async.future.Future;
 import com.koushikdutta.async.future.FutureCallback;
+import com.koushikdutta.async.http.body.JSONObjectBody;
 import com.koushikdutta.async.http.server.AsyncHttpServer;
 import com.koushikdutta.async.http.server.AsyncHttpServerRequest;
 import com.koushikdutta.async.http.server.AsyncHttpServerResponse;
 import com.koushikdutta.async.http.server.HttpServerRequestCallback;
+import com.koushikdutta.ion.DataEmitterInputStream;
+import com.koushikdutta.ion.ElementCallback;
 import com.koushikdutta.ion.Ion;
+import com.koushikdutta.ion.PriorityExecutor;
 import com.koushikdutta.ion.gson.GsonObjectParser;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by koush on 6/5/13.
@@ -129,4 +142,156 @@ public class GsonTests extends AndroidTestCase {
         });
         s.acquire();
     }
+
+    public void testStreamingParse() throws Exception {
+        FilteredDataEmitter emitter = new FilteredDataEmitter() {
+            @Override
+            public boolean isPaused() {
+                return false;
+            }
+        };
+        DataEmitterInputStream stream = new DataEmitterInputStream(emitter, 1024);
+        emitter.onDataAvailable(emitter, new ByteBufferList(ByteBuffer.wrap("{\"foo\":".getBytes())));
+        emitter.onDataAvailable(emitter, new ByteBufferList(ByteBuffer.wrap("\"bar\"}".getBytes())));
+        emitter.getEndCallback().onCompleted(null);
+        JsonObject j = new GsonObjectParser().parse(stream, null);
+        assertEquals(j.get("foo").getAsString(), "bar");
+    }
+
+    public void testLargePojoPost() throws Exception {
+        // too large to be serialized up front, so it is sent chunked as it is serialized
+        StringBuilder foo = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            foo.append((char)('a' + i % 26));
+        }
+        Pojo pojo = new Pojo();
+        pojo.foo = foo.toString();
+
+        AsyncHttpServer httpServer = new AsyncHttpServer();
+        httpServer.post("/", new HttpServerRequestCallback() {
+            @Override
+            public void onRequest(AsyncHttpServerRequest request, AsyncHttpServerResponse response) {
+                JSONObjectBody body = (JSONObjectBody)request.getBody();
+                response.send(body.get().optString("foo"));
+            }
+        });
+        try {
+            httpServer.listen(5555);
+
+            String echo = Ion.with(getContext())
+            .load("http://localhost:5555/")
+            .setJsonPojoBody(pojo)
+            .asString()
+            .get();
+
+            assertEquals(echo, pojo.foo);
+        }
+        finally {
+            httpServer.stop();
+            AsyncServer.getDefault().stop();
+        }
+    }
+
+    public void testCancelLargeBodyUpload() throws Exception {
+        JsonArray array = new JsonArray();
+        for (int i = 0; i < 200000; i++) {
+            array.add(new JsonPrimitive("element " + i));
+        }
+
+        // a server that accepts the connection, but never reads the upload,
+        // so the writer fills the socket and blocks.
+        final Semaphore accepted = new Semaphore(0);
+        final ArrayList<AsyncSocket> sockets = new ArrayList<AsyncSocket>();
+        AsyncServerSocket serverSocket = AsyncServer.getDefault().listen(null, 5557, new ListenCallback() {
+            @Override
+            public void onAccepted(AsyncSocket socket) {
+                socket.pause();
+                sockets.add(socket);
+                accepted.release();
+            }
+
+            @Override
+            public void onListening(AsyncServerSocket socket) {
+            }
+
+            @Override
+            public void onCompleted(Exception ex) {
+            }
+        });
+
+        // a single io thread, which the upload occupies while it is being serialized
+        PriorityExecutor io = new PriorityExecutor(1);
+        Ion ion = Ion.getInstance(getContext(), "testCancelLargeBodyUpload");
+        ion.configure().setIoExecutorService(io);
+        try {
+            Future<String> upload = ion.build(getContext())
+            .load("http://localhost:5557/")
+            .setJsonArrayBody(array)
+            .asString();
+
+            assertTrue(accepted.tryAcquire(5000, TimeUnit.MILLISECONDS));
+            // let the writer fill the socket
+            Thread.sleep(1000);
+            upload.cancel();
+
+            // the writer is woken by the closed connection, and frees the thread
+            final Semaphore drained = new Semaphore(0);
+            io.execute(new Runnable() {
+                @Override
+                public void run() {
+                    drained.release();
+                }
+            });
+            assertTrue(drained.tryAcquire(5000, TimeUnit.MILLISECONDS));
+        }
+        finally {
+            serverSocket.stop();
+            for (AsyncSocket socket: sockets) {
+                socket.close();
+            }
+            io.shutdown();
+            AsyncServer.getDefault().stop();
+        }
+    }
+
+    public void testJsonArrayStream() throws Exception {
+        final StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 1000; i++) {
+            if (i > 0)
+                json.append(',');
+            json.append("{\"foo\":\"bar").append(i).append("\"}");
+        }
+        json.append(']');
+
+        AsyncHttpServer httpServer = new AsyncHttpServer();
+        httpServer.get("/", new HttpServerRequestCallback() {
+            @Override
+            public void onRequest(AsyncHttpServerRequest request, AsyncHttpServerResponse response) {
+                response.send(json.toString());
+            }
+        });
+        try {
+            httpServer.listen(5555);
+
+            final AtomicInteger received = new AtomicInteger();
+            int count = Ion.with(getContext())
+            .load("http://localhost:5555/")
+            .asJsonArrayStream(Pojo.class, 64, new ElementCallback<Pojo>() {
+                @Override
+                public void onElements(List<Pojo> elements) {
+                    assertTrue(elements.size() <= 64);
+                    assertEquals(elements.get(0).foo, "bar" + received.get());
+                    received.addAndGet(elements.size());
+                }
+            })
+            .get();
+
+            assertEquals(count, 1000);
+            assertEquals(received.get(), 1000);
+        }
+        finally {
+            httpServer.stop();
+            AsyncServer.getDefault().stop();
+        }
+    }
 }
@@ -0,0 +1,107 @@
+package com.koushikdutta.ion.test;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.test.AndroidTestCase;
+
+import com.koushikdutta.async.ByteBufferList;
+import com.koushikdutta.ion.bitmap.BitmapMetadata;
+import com.koushikdutta.ion.bitmap.ImageHeaderSniffer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class ImageHeaderSnifferTests extends AndroidTestCase {
+    private byte[] compress(Bitmap.CompressFormat format) {
+        Bitmap bitmap = Bitmap.createBitmap(123, 45, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        bitmap.compress(format, 90, bout);
+        return bout.toByteArray();
+    }
+
+    private void assertMatchesBitmapFactory(byte[] bytes) {
+        BitmapFactory.Options o = new BitmapFactory.Options();
+        o.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, o);
+
+        BitmapMetadata metadata = ImageHeaderSniffer.sniff(bytes, 0, bytes.length);
+        assertNotNull(metadata);
+        assertEquals(o.outWidth, metadata.width);
+        assertEquals(o.outHeight, metadata.height);
+        assertEquals(o.outMimeType, metadata.mimeType);
+    }
+
+    public void testPng() throws Exception {
+        assertMatchesBitmapFactory(compress(Bitmap.CompressFormat.PNG));
+    }
+
+    public void testJpeg() throws Exception {
+        assertMatchesBitmapFactory(compress(Bitmap.CompressFormat.JPEG));
+    }
+
+    public void testGif() throws Exception {
+        byte[] gif = new byte[] { 'G', 'I', 'F', '8', '9', 'a', 123, 0, 45, 0 };
+        BitmapMetadata metadata = ImageHeaderSniffer.sniff(gif, 0, gif.length);
+        assertEquals(123, metadata.width);
+        assertEquals(45, metadata.height);
+        assertEquals("image/gif", metadata.mimeType);
+    }
+
+    // a 24 bit BITMAPINFOHEADER bitmap, with rows padded to 4 bytes
+    private static byte[] bmp(int width, int height) {
+        int stride = (width * 3 + 3) & ~3;
+        int size = 54 + stride * height;
+        ByteBuffer b = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        b.put((byte)'B').put((byte)'M').putInt(size).putInt(0).putInt(54);
+        b.putInt(40).putInt(width).putInt(height).putShort((short)1).putShort((short)24);
+        b.putInt(0).putInt(stride * height).putInt(2835).putInt(2835).putInt(0).putInt(0);
+        return b.array();
+    }
+
+    public void testBmp() throws Exception {
+        byte[] bmp = bmp(7, 5);
+        assertMatchesBitmapFactory(bmp);
+        assertEquals("image/bmp", ImageHeaderSniffer.sniff(bmp, 0, bmp.length).mimeType);
+    }
+
+    public void testNeedMore() throws Exception {
+        byte[] png = compress(Bitmap.CompressFormat.PNG);
+        assertNull(ImageHeaderSniffer.sniff(png, 0, 10));
+        assertFalse(ImageHeaderSniffer.isComplete(png, 0, 10));
+        assertTrue(ImageHeaderSniffer.isComplete(png, 0, png.length));
+    }
+
+    public void testUnknown() throws Exception {
+        byte[] junk = "not an image".getBytes();
+        assertNull(ImageHeaderSniffer.sniff(junk, 0, junk.length));
+        assertTrue(ImageHeaderSniffer.isComplete(junk, 0, junk.length));
+    }
+
+    public void testByteBufferListNotConsumed() throws Exception {
+        byte[] png = compress(Bitmap.CompressFormat.PNG);
+        ByteBufferList list = new ByteBufferList(ByteBuffer.wrap(png, 0, 20), ByteBuffer.wrap(png, 20, png.length - 20));
+        BitmapMetadata metadata = ImageHeaderSniffer.sniff(list);
+        assertNotNull(metadata);
+        assertEquals(123, metadata.width);
+        assertEquals(png.length, list.remaining());
+    }
+
+    public void testExifOrientation() throws Exception {
+        InputStream in = getContext().getAssets().open("exif.jpg");
+        BitmapMetadata metadata = ImageHeaderSniffer.sniff(in);
+        in.close();
+        assertNotNull(metadata);
+        assertEquals(90, metadata.orientation);
+        assertTrue(metadata.getDisplaySize().x < metadata.getDisplaySize().y);
+    }
+
+    public void testStream() throws Exception {
+        byte[] jpeg = compress(Bitmap.CompressFormat.JPEG);
+        BitmapMetadata metadata = ImageHeaderSniffer.sniff(new ByteArrayInputStream(jpeg));
+        assertEquals(123, metadata.width);
+        assertEquals(45, metadata.height);
+    }
+}
@@ -0,0 +1,68 @@
+package com.koushikdutta.ion.test;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+import com.koushikdutta.ion.bitmap.JpegScanCounter;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+public class JpegScanCounterTests extends AndroidTestCase {
+    private static byte[] compress(int width, int height, Bitmap.CompressFormat format) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(0xFF336699);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        bitmap.compress(format, 90, bout);
+        return bout.toByteArray();
+    }
+
+    // a camera style JPEG, with a thumbnail JPEG embedded in an EXIF APP1 segment after the SOI
+    private static byte[] withExifThumbnail(byte[] jpeg, byte[] thumbnail) throws Exception {
+        byte[] exif = "Exif\0\0".getBytes("ISO-8859-1");
+        int length = 2 + exif.length + thumbnail.length;
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        bout.write(jpeg, 0, 2);
+        bout.write(0xFF);
+        bout.write(0xE1);
+        bout.write(length >> 8);
+        bout.write(length & 0xFF);
+        bout.write(exif);
+        bout.write(thumbnail);
+        bout.write(jpeg, 2, jpeg.length - 2);
+        return bout.toByteArray();
+    }
+
+    private static int count(byte[] bytes, int chunk) {
+        JpegScanCounter counter = new JpegScanCounter();
+        for (int i = 0; i < bytes.length; i += chunk) {
+            counter.feed(ByteBuffer.wrap(bytes, i, Math.min(chunk, bytes.length - i)));
+        }
+        assertTrue(counter.isJpeg());
+        return counter.getScanCount();
+    }
+
+    public void testBaseline() throws Exception {
+        byte[] jpeg = compress(200, 150, Bitmap.CompressFormat.JPEG);
+        assertEquals(1, count(jpeg, jpeg.length));
+        assertEquals(1, count(jpeg, 1));
+    }
+
+    public void testExifThumbnail() throws Exception {
+        byte[] jpeg = withExifThumbnail(compress(200, 150, Bitmap.CompressFormat.JPEG),
+            compress(16, 16, Bitmap.CompressFormat.JPEG));
+        // the scan of the thumbnail is inside the APP1 segment, and is not counted
+        assertEquals(1, count(jpeg, jpeg.length));
+        assertEquals(1, count(jpeg, 1));
+        assertEquals(1, count(jpeg, 333));
+    }
+
+    public void testNotJpeg() throws Exception {
+        byte[] png = compress(20, 20, Bitmap.CompressFormat.PNG);
+        JpegScanCounter counter = new JpegScanCounter();
+        counter.feed(ByteBuffer.wrap(png));
+        assertFalse(counter.isJpeg());
+        assertTrue(counter.isStopped());
+        assertEquals(0, counter.getScanCount());
+    }
+}
@@ -0,0 +1,203 @@
+package com.koushikdutta.ion.test;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.koushikdutta.async.AsyncServer;
+import com.koushikdutta.async.future.Future;
+import com.koushikdutta.async.http.server.AsyncHttpServer;
+import com.koushikdutta.async.http.server.AsyncHttpServerRequest;
+import com.koushikdutta.async.http.server.AsyncHttpServerResponse;
+import com.koushikdutta.async.http.server.HttpServerRequestCallback;
+import com.koushikdutta.ion.Ion;
+import com.koushikdutta.ion.gson.GsonSerializer;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how long the AsyncServer thread is stalled while large JSON responses are parsed
+ * alongside small requests, with the parsing inline and on the compute pool.
+ * Also measures the per request overhead of deserializing small responses, and checks that
+ * text is decoded in the charset of the response.
+ */
+public class ParseTests extends AndroidTestCase {
+    private static final int TICK = 5;
+
+    // posts itself to the server every TICK milliseconds, and records how late it ran
+    static class Ticker implements Runnable {
+        AsyncServer server;
+        long expected;
+        long maxLatency;
+        volatile boolean stopped;
+
+        Ticker(AsyncServer server) {
+            this.server = server;
+        }
+
+        void start() {
+            expected = SystemClock.elapsedRealtime();
+            server.post(this);
+        }
+
+        @Override
+        public void run() {
+            long now = SystemClock.elapsedRealtime();
+            maxLatency = Math.max(maxLatency, now - expected);
+            if (stopped)
+                return;
+            expected = now + TICK;
+            server.postDelayed(this, TICK);
+        }
+    }
+
+    private static String largeJson() {
+        StringBuilder b = new StringBuilder("[");
+        for (int i = 0; i < 20000; i++) {
+            if (i > 0)
+                b.append(',');
+            b.append("{\"id\":").append(i).append(",\"name\":\"item ").append(i).append("\",\"tags\":[\"a\",\"b\",\"c\"],\"score\":").append(i * 0.5).append('}');
+        }
+        return b.append(']').toString();
+    }
+
+    private long loadMixed(boolean inline) throws Exception {
+        Ion ion = Ion.getDefault(getContext());
+        Ticker ticker = new Ticker(ion.getServer());
+        ticker.start();
+        try {
+            ArrayList<Future<JsonArray>> large = new ArrayList<Future<JsonArray>>();
+            ArrayList<Future<String>> small = new ArrayList<Future<String>>();
+            for (int i = 0; i < 4; i++) {
+                if (inline)
+                    large.add(ion.build(getContext()).load("http://localhost:5556/large").parseInline().asJsonArray());
+                else
+                    large.add(ion.build(getContext()).load("http://localhost:5556/large").asJsonArray());
+                for (int j = 0; j < 10; j++) {
+                    small.add(ion.build(getContext()).load("http://localhost:5556/small").asString());
+                }
+            }
+            for (Future<JsonArray> future: large) {
+                assertEquals(future.get().size(), 20000);
+            }
+            for (Future<String> future: small) {
+                assertEquals(future.get(), "ok");
+            }
+        }
+        finally {
+            ticker.stopped = true;
+        }
+        return ticker.maxLatency;
+    }
+
+    public static class Item {
+        public int id;
+        public String name;
+        public List<String> tags;
+        public double score;
+    }
+
+    private static long deserialize(boolean cached, byte[] json, int iterations) throws Exception {
+        Gson gson = new Gson();
+        GsonSerializer<Item> serializer = new GsonSerializer<Item>(gson, Item.class);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            // a serializer per request resolves its TypeAdapter every time
+            if (!cached)
+                serializer = new GsonSerializer<Item>(gson, Item.class);
+            Item item = serializer.parse(new ByteArrayInputStream(json), "UTF-8");
+            assertEquals(item.id, 1);
+        }
+        return System.nanoTime() - start;
+    }
+
+    public void testDeserializationOverhead() throws Exception {
+        byte[] json = "{\"id\":1,\"name\":\"item 1\",\"tags\":[\"a\",\"b\"],\"score\":0.5}".getBytes("UTF-8");
+        int iterations = 20000;
+
+        // warm up
+        deserialize(false, json, iterations);
+        deserialize(true, json, iterations);
+
+        long uncached = deserialize(false, json, iterations);
+        long cached = deserialize(true, json, iterations);
+        Log.i("ParseTests", "deserialization per request, new serializer: " + uncached / iterations + "ns, cached serializer: " + cached / iterations + "ns");
+    }
+
+    public void testServerLatencyUnderMixedLoad() throws Exception {
+        final String json = largeJson();
+        AsyncHttpServer httpServer = new AsyncHttpServer();
+        httpServer.get("/large", new HttpServerRequestCallback() {
+            @Override
+            public void onRequest(AsyncHttpServerRequest request, AsyncHttpServerResponse response) {
+                response.send(json);
+            }
+        });
+        httpServer.get("/small", new HttpServerRequestCallback() {
+            @Override
+            public void onRequest(AsyncHttpServerRequest request, AsyncHttpServerResponse response) {
+                response.send("ok");
+            }
+        });
+        try {
+            httpServer.listen(5556);
+
+            // warm up the connections and the parser
+            loadMixed(false);
+
+            long inline = loadMixed(true);
+            long offloaded = loadMixed(false);
+            Log.i("ParseTests", "max server latency, parsing inline: " + inline + "ms, on the compute pool: " + offloaded + "ms");
+        }
+        finally {
+            httpServer.stop();
+            AsyncServer.getDefault().stop();
+        }
+    }
+
+    public void testStringCharset() throws Exception {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            b.append("caf\u00e9 \u65e5\u672c ");
+        }
+        final String large = b.toString();
+        AsyncHttpServer httpServer = new AsyncHttpServer();
+        httpServer.get("/latin1", new HttpServerRequestCallback() {
+            @Override
+            public void onRequest(AsyncHttpServerRequest request, AsyncHttpServerResponse response) {
+                try {
+                    response.send("text/plain; charset=ISO-8859-1", "caf\u00e9".getBytes("ISO-8859-1"));
+                }
+                catch (Exception e) {
+                    fail();
+                }
+            }
+        });
+        httpServer.get("/large", new HttpServerRequestCallback() {
+            @Override
+            public void onRequest(AsyncHttpServerRequest request, AsyncHttpServerResponse response) {
+                try {
+                    response.send("text/plain; charset=UTF-8", large.getBytes("UTF-8"));
+                }
+                catch (Exception e) {
+                    fail();
+                }
+            }
+        });
+        try {
+            httpServer.listen(5556);
+            Ion ion = Ion.getDefault(getContext());
+            assertEquals(ion.build(getContext()).load("http://localhost:5556/latin1").asString().get(), "caf\u00e9");
+            // decoded as it streams in, with characters split across buffers
+            assertEquals(ion.build(getContext()).load("http://localhost:5556/large").asString().get(), large);
+        }
+        finally {
+            httpServer.stop();
+            AsyncServer.getDefault().stop();
+        }
+    }
+}
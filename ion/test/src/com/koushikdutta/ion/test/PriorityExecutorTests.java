@@ -0,0 +1,70 @@
+package com.koushikdutta.ion.test;
+
+import android.test.AndroidTestCase;
+
+import com.koushikdutta.ion.PriorityExecutor;
+import com.koushikdutta.ion.PriorityRunnable;
+
+import java.util.ArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+public class PriorityExecutorTests extends AndroidTestCase {
+    final ArrayList<String> order = new ArrayList<String>();
+    final Semaphore done = new Semaphore(0);
+
+    private PriorityRunnable task(final String name, int priority) {
+        return new PriorityRunnable(priority) {
+            @Override
+            public void run() {
+                synchronized (order) {
+                    order.add(name);
+                }
+                done.release();
+            }
+        };
+    }
+
+    public void testOrder() throws Exception {
+        PriorityExecutor executor = new PriorityExecutor(1);
+        try {
+            // occupy the only thread, so the rest are queued
+            final Semaphore blocker = new Semaphore(0);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    blocker.acquireUninterruptibly();
+                }
+            });
+
+            executor.execute(task("default1", PriorityRunnable.DEFAULT_PRIORITY));
+            executor.execute(task("background", PriorityRunnable.BACKGROUND_PRIORITY));
+            executor.execute(task("high", 5));
+            executor.execute(task("default2", PriorityRunnable.DEFAULT_PRIORITY));
+            // plain runnables run at the default priority
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (order) {
+                        order.add("plain");
+                    }
+                    done.release();
+                }
+            });
+            assertEquals(5, executor.getQueueDepth());
+
+            blocker.release();
+            assertTrue(done.tryAcquire(5, 5000, TimeUnit.MILLISECONDS));
+            synchronized (order) {
+                assertEquals("high", order.get(0));
+                assertEquals("default1", order.get(1));
+                assertEquals("default2", order.get(2));
+                assertEquals("plain", order.get(3));
+                assertEquals("background", order.get(4));
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+}
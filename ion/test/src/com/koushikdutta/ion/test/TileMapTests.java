@@ -0,0 +1,63 @@
+package com.koushikdutta.ion.test;
+
+import android.test.AndroidTestCase;
+
+import com.koushikdutta.ion.bitmap.TileMap;
+
+public class TileMapTests extends AndroidTestCase {
+    public void testKey() throws Exception {
+        long key = TileMap.key(12, 0xFFFFFFF, 12345);
+        assertEquals(12, TileMap.getLevel(key));
+        assertEquals(0xFFFFFFF, TileMap.getX(key));
+        assertEquals(12345, TileMap.getY(key));
+    }
+
+    public void testPutGetRemove() throws Exception {
+        TileMap<String> map = new TileMap<String>();
+        long key = TileMap.key(1, 2, 3);
+        assertNull(map.put(key, "a"));
+        assertEquals("a", map.get(key));
+        assertEquals("a", map.put(key, "b"));
+        assertEquals(1, map.size());
+
+        // only removed if mapped to the given value
+        assertFalse(map.remove(key, "a"));
+        assertEquals("b", map.get(key));
+        assertTrue(map.remove(key, "b"));
+        assertNull(map.get(key));
+        assertEquals(0, map.size());
+    }
+
+    public void testGrowAndRemove() throws Exception {
+        TileMap<Integer> map = new TileMap<Integer>();
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            map.put(TileMap.key(i % 8, i, i * 7), i);
+        }
+        assertEquals(count, map.size());
+
+        // removals shift the entries that follow, which must all still be found
+        for (int i = 0; i < count; i += 2) {
+            assertEquals(Integer.valueOf(i), map.remove(TileMap.key(i % 8, i, i * 7)));
+        }
+        assertEquals(count / 2, map.size());
+        for (int i = 0; i < count; i++) {
+            Integer value = map.get(TileMap.key(i % 8, i, i * 7));
+            if (i % 2 == 0)
+                assertNull(value);
+            else
+                assertEquals(Integer.valueOf(i), value);
+        }
+
+        int found = 0;
+        for (int i = 0; i < map.capacity(); i++) {
+            if (map.valueAt(i) != null)
+                found++;
+        }
+        assertEquals(count / 2, found);
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.get(TileMap.key(1, 1, 7)));
+    }
+}